@@ -0,0 +1,104 @@
+package com.spartango.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.network.AsyncServerEvent;
+import com.spartango.network.AsyncServerListener;
+import com.spartango.network.AsyncServerSocket;
+
+/**
+ * Connections accepted per second by an AsyncServerSocket, accepting on its
+ * own thread or on an event loop. Each operation connects a client over
+ * loopback and waits for the server to announce it.
+ *
+ * @author anand
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AcceptBenchmark {
+
+	@Param({ "thread", "loop" })
+	private String engine;
+
+	private AsyncEventLoopGroup group;
+	private AsyncServerSocket server;
+	private InetSocketAddress address;
+	private Semaphore accepted;
+
+	@Setup
+	public void setup() throws IOException {
+		if (engine.equals("loop")) {
+			group = new AsyncEventLoopGroup(1);
+			server = new AsyncServerSocket(new InetSocketAddress(
+					"127.0.0.1", 0), 0, group);
+		} else {
+			server = new AsyncServerSocket(0);
+		}
+		address = new InetSocketAddress("127.0.0.1", server.getLocalPort());
+		accepted = new Semaphore(0);
+
+		server.add(new AsyncServerListener() {
+			public void onNewClient(AsyncServerEvent e) {
+				try {
+					e.getClient().close();
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+				accepted.release();
+			}
+
+			public void onServerFailure(AsyncServerEvent e) {
+			}
+
+			public void onServerClosed() {
+			}
+		});
+		server.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		server.close();
+		if (group != null) {
+			group.close();
+		} else {
+			// Wake the accepting thread, so that it sees the close
+			new Socket(address.getAddress(), address.getPort()).close();
+		}
+	}
+
+	@Benchmark
+	public void connectAndAccept() throws IOException, InterruptedException {
+		Socket client = new Socket();
+		// Reset rather than linger, so loopback ports aren't left in
+		// TIME_WAIT
+		client.setSoLinger(true, 0);
+		client.connect(address);
+		accepted.acquire();
+		client.close();
+	}
+
+}
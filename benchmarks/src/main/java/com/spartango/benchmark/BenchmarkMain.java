@@ -0,0 +1,35 @@
+package com.spartango.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, always adding the GC
+ * profiler so that every result comes with its allocation rate
+ * (gc.alloc.rate.norm is bytes allocated per operation).
+ *
+ * @author anand
+ *
+ */
+public class BenchmarkMain {
+
+	public static void main(String[] args) throws Exception {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+
+		Runner runner = new Runner(new OptionsBuilder().parent(commandLine)
+				.addProfiler(GCProfiler.class).build());
+		if (commandLine.shouldList()) {
+			runner.list();
+		} else {
+			runner.run();
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.spartango.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartango.io.buffer.AsyncBufferPool;
+import com.spartango.io.dataread.AsyncDataReadEvent;
+import com.spartango.io.dataread.AsyncDataReadListener;
+import com.spartango.io.dataread.AsyncDataReader;
+
+/**
+ * Time for an AsyncDataReader to read 4MB and dispatch every read to a
+ * listener, for several read lengths, cloning each read or leasing it from
+ * a buffer pool.
+ *
+ * @author anand
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataReaderBenchmark {
+	private static final int INPUT_LENGTH = 4 * 1024 * 1024;
+
+	@Param({ "256", "4096", "65536" })
+	private int readLength;
+
+	@Param({ "false", "true" })
+	private boolean pooled;
+
+	private byte[] input;
+	private AsyncBufferPool pool;
+
+	@Setup
+	public void setup() {
+		input = new byte[INPUT_LENGTH];
+		pool = new AsyncBufferPool();
+	}
+
+	@Benchmark
+	public long readAndDispatch() throws InterruptedException {
+		final AsyncDataReader reader = new AsyncDataReader(
+				new ByteArrayInputStream(input), readLength);
+		if (pooled) {
+			reader.setBufferPool(pool);
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		final long[] received = new long[1];
+
+		reader.addAsyncDataReadListener(new AsyncDataReadListener() {
+			public void onDataReceived(AsyncDataReadEvent e) {
+				if (e.getDataLength() < 0) {
+					// Stream readers report the end of the stream as a read
+					reader.close();
+					done.countDown();
+				} else {
+					received[0] += e.getDataLength();
+				}
+			}
+
+			public void onReceiveFailed(AsyncDataReadEvent e) {
+			}
+
+			public void onReaderClosed(AsyncDataReadEvent e) {
+			}
+		});
+		reader.start();
+		done.await();
+		return received[0];
+	}
+
+}
@@ -0,0 +1,202 @@
+package com.spartango.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartango.io.dataread.AsyncDataReadEvent;
+import com.spartango.io.dataread.AsyncDataReadListener;
+import com.spartango.io.lineread.AsyncLineReadEvent;
+import com.spartango.io.lineread.AsyncLineReadListener;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.netdata.AsyncDataSocket;
+import com.spartango.netdata.AsyncFramePrefix;
+import com.spartango.network.AsyncServerEvent;
+import com.spartango.network.AsyncServerListener;
+import com.spartango.network.AsyncServerSocket;
+import com.spartango.network.AsyncSocket;
+
+/**
+ * Round trips over loopback between a client and an echoing server, both
+ * built from AsyncSocket (lines) or AsyncDataSocket (length-prefixed
+ * frames), and driven by dedicated threads or by an event loop. Each
+ * operation sends one message and waits for its echo.
+ *
+ * @author anand
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EchoBenchmark {
+	private static final int READ_LENGTH = 8192;
+
+	@Param({ "line", "data" })
+	private String socket;
+
+	@Param({ "thread", "loop" })
+	private String engine;
+
+	@Param({ "64", "1024" })
+	private int messageSize;
+
+	private AsyncEventLoopGroup group;
+	private AsyncServerSocket server;
+	private List<Object> serverSockets;
+
+	private AsyncSocket lineClient;
+	private AsyncDataSocket dataClient;
+	private String line;
+	private byte[] data;
+	private Semaphore echoed;
+
+	@Setup
+	public void setup() throws IOException {
+		group = new AsyncEventLoopGroup(1);
+		serverSockets = new CopyOnWriteArrayList<Object>();
+		server = new AsyncServerSocket(new InetSocketAddress("127.0.0.1", 0),
+				0, group);
+		server.add(new AsyncServerListener() {
+			public void onNewClient(AsyncServerEvent e) {
+				try {
+					serve(e);
+				} catch (IOException ex) {
+					ex.printStackTrace();
+				}
+			}
+
+			public void onServerFailure(AsyncServerEvent e) {
+			}
+
+			public void onServerClosed() {
+			}
+		});
+		server.start();
+
+		char[] text = new char[messageSize - 1];
+		Arrays.fill(text, 'x');
+		line = new String(text) + "\n";
+		data = new byte[messageSize];
+		echoed = new Semaphore(0);
+
+		int port = server.getLocalPort();
+		boolean loop = engine.equals("loop");
+		if (socket.equals("line")) {
+			lineClient = loop ? new AsyncSocket("127.0.0.1", port, group)
+					: new AsyncSocket("127.0.0.1", port);
+			lineClient.addAsyncSocketListener(new LineListener() {
+				public void onDataReceived(AsyncLineReadEvent e) {
+					echoed.release();
+				}
+			});
+		} else {
+			dataClient = loop ? new AsyncDataSocket("127.0.0.1", port,
+					READ_LENGTH, group) : new AsyncDataSocket("127.0.0.1",
+					port, READ_LENGTH);
+			dataClient.setFraming(AsyncFramePrefix.VARINT, messageSize);
+			dataClient.addAsyncSocketListener(new DataListener() {
+				public void onDataReceived(AsyncDataReadEvent e) {
+					echoed.release();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Wraps an accepted client the same way as the benchmark's client, and
+	 * echoes everything it sends
+	 */
+	private void serve(AsyncServerEvent e) throws IOException {
+		boolean loop = engine.equals("loop");
+		if (socket.equals("line")) {
+			final AsyncSocket echo = loop ? new AsyncSocket(
+					e.getClientChannel(), group) : new AsyncSocket(
+					e.getClient());
+			echo.addAsyncSocketListener(new LineListener() {
+				public void onDataReceived(AsyncLineReadEvent e) {
+					echo.send(e.getData() + "\n");
+				}
+			});
+			serverSockets.add(echo);
+		} else {
+			final AsyncDataSocket echo = loop ? new AsyncDataSocket(
+					e.getClientChannel(), READ_LENGTH, group)
+					: new AsyncDataSocket(e.getClient(), READ_LENGTH);
+			echo.setFraming(AsyncFramePrefix.VARINT, messageSize);
+			echo.addAsyncSocketListener(new DataListener() {
+				public void onDataReceived(AsyncDataReadEvent e) {
+					echo.send(e.getData());
+				}
+			});
+			serverSockets.add(echo);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (lineClient != null) {
+			lineClient.close();
+		}
+		if (dataClient != null) {
+			dataClient.close();
+		}
+		for (Object echo : serverSockets) {
+			if (echo instanceof AsyncSocket) {
+				((AsyncSocket) echo).close();
+			} else {
+				((AsyncDataSocket) echo).close();
+			}
+		}
+		server.close();
+		group.close();
+	}
+
+	@Benchmark
+	public void roundTrip() throws InterruptedException {
+		if (lineClient != null) {
+			lineClient.send(line);
+		} else {
+			dataClient.send(data);
+		}
+		echoed.acquire();
+	}
+
+	private abstract static class LineListener implements
+			AsyncLineReadListener {
+		public void onReceiveFailed(AsyncLineReadEvent e) {
+		}
+
+		public void onReaderClosed(AsyncLineReadEvent e) {
+		}
+	}
+
+	private abstract static class DataListener implements
+			AsyncDataReadListener {
+		public void onReceiveFailed(AsyncDataReadEvent e) {
+		}
+
+		public void onReaderClosed(AsyncDataReadEvent e) {
+		}
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.spartango.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartango.io.lineread.AsyncLineReadEvent;
+import com.spartango.io.lineread.AsyncLineReadListener;
+import com.spartango.io.lineread.AsyncLineReader;
+import com.spartango.io.lineread.AsyncMappedLineReader;
+
+/**
+ * Lines decoded per millisecond by an AsyncLineReader, framing either bytes
+ * (with a charset), text (through a BufferedReader), or a memory-mapped file.
+ * Each invocation reads a fresh reader over the same input, decoding every
+ * line to a String.
+ *
+ * @author anand
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@OperationsPerInvocation(LineReaderBenchmark.LINES)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineReaderBenchmark {
+	static final int LINES = 10000;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Param({ "16", "128", "1024" })
+	private int lineLength;
+
+	@Param({ "bytes", "text", "mapped" })
+	private String framing;
+
+	private byte[] input;
+	private Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		byte[] line = new byte[lineLength];
+		Arrays.fill(line, (byte) 'x');
+		line[lineLength - 1] = '\n';
+
+		input = new byte[LINES * lineLength];
+		for (int i = 0; i < LINES; i++) {
+			System.arraycopy(line, 0, input, i * lineLength, lineLength);
+		}
+
+		file = Files.createTempFile("lines", ".txt");
+		Files.write(file, input);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(file);
+	}
+
+	@Benchmark
+	public long readLines() throws InterruptedException, IOException {
+		final AsyncLineReader reader = newReader();
+		final CountDownLatch done = new CountDownLatch(1);
+		final long[] decoded = new long[2]; // lines, chars
+
+		reader.addAsyncLineReadListener(new AsyncLineReadListener() {
+			public void onDataReceived(AsyncLineReadEvent e) {
+				decoded[1] += e.getData().length();
+				if (++decoded[0] == LINES) {
+					// Text readers never see the end of the stream
+					reader.close();
+					done.countDown();
+				}
+			}
+
+			public void onReceiveFailed(AsyncLineReadEvent e) {
+			}
+
+			public void onReaderClosed(AsyncLineReadEvent e) {
+			}
+		});
+		reader.start();
+		done.await();
+		return decoded[1];
+	}
+
+	private AsyncLineReader newReader() throws IOException {
+		if (framing.equals("mapped")) {
+			return new AsyncMappedLineReader(file, UTF_8, 0);
+		}
+
+		ByteArrayInputStream in = new ByteArrayInputStream(input);
+		return framing.equals("bytes") ? new AsyncLineReader(in, UTF_8, 0)
+				: new AsyncLineReader(new InputStreamReader(in, UTF_8));
+	}
+
+}
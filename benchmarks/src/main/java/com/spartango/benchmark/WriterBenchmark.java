@@ -0,0 +1,80 @@
+package com.spartango.benchmark;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.spartango.io.write.AsyncOutputWriter;
+
+/**
+ * An AsyncOutputWriter writing to a stream that discards everything, so that
+ * only the writer's own costs are measured: the latency from send to flush of
+ * a single message, and the throughput of pipelined sends, with and without
+ * batching.
+ *
+ * @author anand
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriterBenchmark {
+	private static final int PIPELINE = 1000;
+
+	@Param({ "16", "256", "4096", "65536" })
+	private int messageSize;
+
+	@Param({ "false", "true" })
+	private boolean batching;
+
+	private byte[] message;
+	private AsyncOutputWriter writer;
+
+	@Setup
+	public void setup() {
+		message = new byte[messageSize];
+		writer = new AsyncOutputWriter(OutputStream.nullOutputStream());
+		writer.setBatching(batching);
+		writer.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		writer.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void sendToFlush() throws InterruptedException, ExecutionException {
+		writer.sendAsync(message).get();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@OperationsPerInvocation(PIPELINE)
+	public void pipelinedSends() throws InterruptedException,
+			ExecutionException {
+		for (int i = 0; i < PIPELINE; i++) {
+			writer.send(message);
+		}
+		writer.flushAsync().get();
+	}
+
+}
@@ -6,14 +6,26 @@ public abstract class AsyncIOEvent {
 	public static final int FAILURE = 2;
 	public static final int CLOSURE = 3;
 
-	protected final int type;
-	protected final Exception error;
+	protected int type;
+	protected Exception error;
 
 	public AsyncIOEvent(int type, Exception error) {
 		this.type = type;
 		this.error = error;
 	}
 
+	/**
+	 * Refills a reusable event in place, for sources that publish one
+	 * instance per callback rather than allocating
+	 * 
+	 * @param type
+	 * @param error
+	 */
+	protected void reset(int type, Exception error) {
+		this.type = type;
+		this.error = error;
+	}
+
 	public int getType() {
 		return type;
 	}
@@ -0,0 +1,105 @@
+package com.spartango.io;
+
+import java.lang.reflect.Array;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A copy-on-write registry of listeners for an event source. Publishing reads
+ * a snapshot array without locking or allocating, and listeners may be added
+ * or removed from any thread, including from within a callback; a change
+ * takes effect from the next event published.
+ *
+ * @author anand
+ *
+ * @param <T>
+ *            the listener type
+ */
+public class AsyncListenerList<T> {
+	private final AtomicReference<T[]> snapshot;
+
+	/**
+	 * @param type
+	 *            the listener type, for building snapshot arrays
+	 */
+	@SuppressWarnings("unchecked")
+	public AsyncListenerList(Class<T> type) {
+		snapshot = new AtomicReference<T[]>((T[]) Array.newInstance(type, 0));
+	}
+
+	/**
+	 * Adds a listener, which may already be registered. NONBLOCKING
+	 *
+	 * @param listener
+	 * @return true
+	 */
+	public boolean add(T listener) {
+		while (true) {
+			T[] current = snapshot.get();
+			T[] next = newArray(current, current.length + 1);
+			System.arraycopy(current, 0, next, 0, current.length);
+			next[current.length] = listener;
+			if (snapshot.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Removes one registration of a listener. NONBLOCKING
+	 *
+	 * @param listener
+	 * @return whether the listener was registered
+	 */
+	public boolean remove(Object listener) {
+		while (true) {
+			T[] current = snapshot.get();
+			int index = indexOf(current, listener);
+			if (index < 0) {
+				return false;
+			}
+
+			T[] next = newArray(current, current.length - 1);
+			System.arraycopy(current, 0, next, 0, index);
+			System.arraycopy(current, index + 1, next, index, next.length
+					- index);
+			if (snapshot.compareAndSet(current, next)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The listeners registered right now. The array is shared, and must not
+	 * be modified.
+	 *
+	 * @return
+	 */
+	public T[] getListeners() {
+		return snapshot.get();
+	}
+
+	public int size() {
+		return snapshot.get().length;
+	}
+
+	public boolean isEmpty() {
+		return snapshot.get().length == 0;
+	}
+
+	private static int indexOf(Object[] listeners, Object listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listener == null ? listeners[i] == null : listener
+					.equals(listeners[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T[] newArray(T[] template, int length) {
+		return (T[]) Array.newInstance(template.getClass()
+				.getComponentType(), length);
+	}
+
+}
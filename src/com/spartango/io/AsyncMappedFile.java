@@ -0,0 +1,77 @@
+package com.spartango.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file read through memory mappings, one window at a time, for the mapped
+ * readers. Mapped windows are read at memory speed once the file is cached,
+ * and stay valid until garbage collected, even after the file is closed; a
+ * window must not be touched after the file is truncated beneath it.
+ *
+ * @author anand
+ *
+ */
+public class AsyncMappedFile implements Closeable {
+	/** Default bytes mapped at once */
+	public static final int DEFAULT_WINDOW = 256 * 1024 * 1024;
+
+	private final FileChannel file;
+	private final int windowSize;
+
+	/**
+	 * Opens a file for reading. BLOCKING
+	 *
+	 * @param path
+	 * @param windowSize
+	 *            most bytes mapped at once
+	 * @throws IOException
+	 */
+	public AsyncMappedFile(Path path, int windowSize) throws IOException {
+		if (windowSize < 8) {
+			throw new IllegalArgumentException("Window of " + windowSize
+					+ " bytes too small");
+		}
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		this.windowSize = windowSize;
+	}
+
+	/**
+	 * Maps as much of the file from the given position as the window allows,
+	 * in little-endian order so that it can be scanned a word at a time
+	 *
+	 * @param position
+	 * @return the mapping, empty at end of file
+	 * @throws IOException
+	 */
+	public ByteBuffer map(long position) throws IOException {
+		long length = Math.min(windowSize, Math.max(size() - position, 0));
+		return file.map(FileChannel.MapMode.READ_ONLY, position, length)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * The file's current size, which grows as it is appended to
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public long size() throws IOException {
+		return file.size();
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	@Override
+	public void close() throws IOException {
+		file.close();
+	}
+
+}
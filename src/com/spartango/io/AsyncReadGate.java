@@ -0,0 +1,206 @@
+package com.spartango.io;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Decides whether a reader may read: not while paused by hand, nor while too
+ * many of its events are waiting to be delivered. A reader that stops reading
+ * leaves data in the socket's receive buffer, so that TCP's flow control
+ * slows the remote sender rather than the data piling up in memory.
+ *
+ * Once the pending events reach the maximum, reading stays paused until they
+ * drain to half of it. Changes report whether they opened or closed the gate,
+ * so that readers driven by a loop can update their interest.
+ *
+ * @author anand
+ *
+ */
+public class AsyncReadGate {
+	private final ReentrantLock lock;
+	private final Condition opened;
+
+	private final AtomicInteger pending;
+	private volatile int maxPending; // 0 -- unbounded
+	private volatile boolean full;
+	private boolean paused;
+	private boolean closed;
+	private volatile boolean open;
+
+	public AsyncReadGate() {
+		lock = new ReentrantLock();
+		opened = lock.newCondition();
+		pending = new AtomicInteger(0);
+		maxPending = 0;
+		full = false;
+		paused = false;
+		closed = false;
+		open = true;
+	}
+
+	/**
+	 * Stops reading until resumed
+	 *
+	 * @return whether this closed the gate
+	 */
+	public boolean pause() {
+		lock.lock();
+		try {
+			boolean wasOpen = open;
+			paused = true;
+			return update() != wasOpen;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Allows reading again, unless too many events are pending
+	 *
+	 * @return whether this opened the gate
+	 */
+	public boolean resume() {
+		lock.lock();
+		try {
+			boolean wasOpen = open;
+			paused = false;
+			return update() != wasOpen;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Counts an event handed off to be delivered later
+	 *
+	 * @return whether this closed the gate
+	 */
+	public boolean acquire() {
+		int count = pending.incrementAndGet();
+		int max = maxPending;
+		if (full || max <= 0 || count < max) {
+			return false;
+		}
+
+		lock.lock();
+		try {
+			boolean wasOpen = open;
+			full = maxPending > 0 && pending.get() >= maxPending;
+			return update() != wasOpen;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Counts off a delivered event. Must match an acquire().
+	 *
+	 * @return whether this opened the gate
+	 */
+	public boolean release() {
+		int count = pending.decrementAndGet();
+		if (!full || count > maxPending / 2) {
+			return false;
+		}
+
+		lock.lock();
+		try {
+			boolean wasOpen = open;
+			if (full && pending.get() <= maxPending / 2) {
+				full = false;
+			}
+			return update() != wasOpen;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits until reading is allowed, or the gate is closed for good.
+	 * BLOCKING
+	 *
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		if (open) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			while (!open && !closed) {
+				opened.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Wakes anyone waiting, as the reader is closing
+	 */
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			opened.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean update() {
+		open = !paused && !full;
+		if (open) {
+			opened.signalAll();
+		}
+		return open;
+	}
+
+	/**
+	 * Whether reading is allowed
+	 *
+	 * @return
+	 */
+	public boolean isOpen() {
+		return open;
+	}
+
+	public boolean isPaused() {
+		lock.lock();
+		try {
+			return paused;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getPending() {
+		return pending.get();
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	/**
+	 * Pauses reading while this many events are pending
+	 *
+	 * @param maxPending
+	 *            or 0 for no limit
+	 * @return whether this opened or closed the gate
+	 */
+	public boolean setMaxPending(int maxPending) {
+		lock.lock();
+		try {
+			boolean wasOpen = open;
+			this.maxPending = maxPending;
+			full = maxPending > 0 && pending.get() >= maxPending;
+			return update() != wasOpen;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+package com.spartango.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs tasks one at a time, in submission order, on a shared executor. Many
+ * serial executors can share one pool, giving each connection ordered
+ * delivery without a thread of its own.
+ *
+ * @author anand
+ *
+ */
+public class AsyncSerialExecutor implements Executor {
+	// Tasks run per turn on the shared pool, so one busy connection yields
+	private static final int MAX_TASKS_PER_TURN = 64;
+
+	private final Executor executor;
+	private final Queue<Runnable> tasks;
+	private final AtomicBoolean scheduled;
+	private final Runnable drain;
+
+	/**
+	 * @param executor
+	 *            the shared executor to run on
+	 */
+	public AsyncSerialExecutor(Executor executor) {
+		this.executor = executor;
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		scheduled = new AtomicBoolean(false);
+		drain = new Runnable() {
+			public void run() {
+				drain();
+			}
+		};
+	}
+
+	/**
+	 * Queues a task to run after every task queued before it. NONBLOCKING
+	 */
+	@Override
+	public void execute(Runnable task) {
+		tasks.add(task);
+		schedule();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drain);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+				throw e;
+			}
+		}
+	}
+
+	private void drain() {
+		try {
+			Runnable task;
+			for (int i = 0; i < MAX_TASKS_PER_TURN
+					&& (task = tasks.poll()) != null; i++) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			if (!tasks.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+
+	public int getPendingTasks() {
+		return tasks.size();
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.spartango.io;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the runners behind the asynchronous readers, writers
+ * and servers. Virtual threads let the blocking-stream classes scale to very
+ * many connections, but require a JDK that provides them (21+); they are
+ * looked up reflectively so this library still runs on older JDKs.
+ *
+ * @author anand
+ *
+ */
+public final class AsyncThreads {
+	private static final ThreadFactory PLATFORM = new ThreadFactory() {
+		public Thread newThread(Runnable task) {
+			return new Thread(task);
+		}
+	};
+
+	private static final ThreadFactory VIRTUAL = lookupVirtualThreads();
+
+	private AsyncThreads() {
+	}
+
+	/**
+	 * A factory for ordinary platform threads, one per runner
+	 *
+	 * @return
+	 */
+	public static ThreadFactory platformThreads() {
+		return PLATFORM;
+	}
+
+	/**
+	 * A factory for virtual threads
+	 *
+	 * @return
+	 * @throws UnsupportedOperationException
+	 *             if this JDK has no virtual threads
+	 */
+	public static ThreadFactory virtualThreads() {
+		if (VIRTUAL == null) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require JDK 21 or later");
+		}
+		return VIRTUAL;
+	}
+
+	/**
+	 * Virtual threads where the JDK provides them, platform threads otherwise
+	 *
+	 * @return
+	 */
+	public static ThreadFactory preferVirtualThreads() {
+		return VIRTUAL != null ? VIRTUAL : PLATFORM;
+	}
+
+	public static boolean isVirtualThreadSupported() {
+		return VIRTUAL != null;
+	}
+
+	private static ThreadFactory lookupVirtualThreads() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+					.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+package com.spartango.io;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A task scheduled on an AsyncTimer, which can be cancelled until it runs
+ *
+ * @see AsyncTimer
+ * @author anand
+ *
+ */
+public class AsyncTimeout {
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final AsyncTimer timer;
+	private final Runnable task;
+	private final long deadline; // ns, relative to the timer's start
+	private final AtomicInteger state;
+
+	// Owned by the timer thread
+	long remainingRounds;
+	List<AsyncTimeout> bucket; // null -- not on the wheel
+	int index;
+
+	AsyncTimeout(AsyncTimer timer, Runnable task, long deadline) {
+		this.timer = timer;
+		this.task = task;
+		this.deadline = deadline;
+		state = new AtomicInteger(PENDING);
+	}
+
+	/**
+	 * Stops the task from running, and has the timer drop it from the wheel
+	 * on its next tick. NONBLOCKING
+	 *
+	 * @return false if the task has already run or been cancelled
+	 */
+	public boolean cancel() {
+		if (!state.compareAndSet(PENDING, CANCELLED)) {
+			return false;
+		}
+		timer.cancelled(this);
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return state.get() == CANCELLED;
+	}
+
+	public boolean isExpired() {
+		return state.get() == EXPIRED;
+	}
+
+	long getDeadline() {
+		return deadline;
+	}
+
+	void expire() {
+		if (state.compareAndSet(PENDING, EXPIRED)) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,249 @@
+package com.spartango.io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed-wheel timer for large numbers of short timeouts, most of which are
+ * cancelled before they expire. Scheduling and cancelling are constant time
+ * and lock-free; a single thread advances the wheel once per tick, running
+ * the tasks that have expired. Timeouts fire up to one tick late, and tasks
+ * should be short, as they hold up the others.
+ *
+ * @see AsyncTimeout
+ * @author anand
+ *
+ */
+public class AsyncTimer implements Runnable {
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "AsyncTimer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static AsyncTimer shared;
+
+	private final long tickNanos;
+	private final List<List<AsyncTimeout>> wheel;
+	private final int mask;
+	private final Queue<AsyncTimeout> pending;
+	private final Queue<AsyncTimeout> cancelled;
+	private final long startTime;
+	private final Thread runner;
+
+	private long tick;
+	private volatile boolean running;
+
+	/**
+	 * Creates and starts a timer with 10ms ticks on a 512 slot wheel
+	 */
+	public AsyncTimer() {
+		this(10, TimeUnit.MILLISECONDS, 512);
+	}
+
+	/**
+	 * Creates and starts a timer on a daemon thread
+	 *
+	 * @param tickDuration
+	 *            the timer's resolution
+	 * @param unit
+	 * @param wheelSize
+	 *            slots on the wheel, rounded up to a power of two
+	 */
+	public AsyncTimer(long tickDuration, TimeUnit unit, int wheelSize) {
+		this(tickDuration, unit, wheelSize, DAEMON_THREADS);
+	}
+
+	/**
+	 * Creates and starts a timer whose thread comes from the given factory
+	 *
+	 * @param tickDuration
+	 * @param unit
+	 * @param wheelSize
+	 * @param threads
+	 */
+	public AsyncTimer(long tickDuration, TimeUnit unit, int wheelSize,
+			ThreadFactory threads) {
+		tickNanos = Math.max(unit.toNanos(tickDuration), 1);
+		int slots = Integer.highestOneBit(Math.max(wheelSize, 1) * 2 - 1);
+		wheel = new ArrayList<List<AsyncTimeout>>(slots);
+		for (int i = 0; i < slots; i++) {
+			wheel.add(new ArrayList<AsyncTimeout>());
+		}
+		mask = slots - 1;
+		pending = new ConcurrentLinkedQueue<AsyncTimeout>();
+		cancelled = new ConcurrentLinkedQueue<AsyncTimeout>();
+		startTime = System.nanoTime();
+		tick = 0;
+
+		running = true;
+		runner = threads.newThread(this);
+		runner.start();
+	}
+
+	/**
+	 * A timer shared by everything that doesn't need its own, created on
+	 * first use
+	 *
+	 * @return
+	 */
+	public static synchronized AsyncTimer getShared() {
+		if (shared == null) {
+			shared = new AsyncTimer();
+		}
+		return shared;
+	}
+
+	/**
+	 * Schedules a task to run on the timer thread after the given delay.
+	 * NONBLOCKING
+	 *
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return a handle through which the task can be cancelled
+	 */
+	public AsyncTimeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (!running) {
+			throw new IllegalStateException("Timer closed");
+		}
+		AsyncTimeout timeout = new AsyncTimeout(this, task, System.nanoTime()
+				- startTime + unit.toNanos(delay));
+		pending.add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			if (!awaitTick()) {
+				break;
+			}
+			transferPending();
+			removeCancelled();
+			expire(wheel.get((int) (tick & mask)));
+			tick++;
+		}
+
+		// Timeouts still scheduled are dropped, as nothing will run them
+		pending.clear();
+		cancelled.clear();
+		for (List<AsyncTimeout> bucket : wheel) {
+			bucket.clear();
+		}
+	}
+
+	/**
+	 * Sleeps until the end of the current tick
+	 *
+	 * @return false if interrupted
+	 */
+	private boolean awaitTick() {
+		long tickEnd = (tick + 1) * tickNanos;
+		while (true) {
+			long remaining = tickEnd - (System.nanoTime() - startTime);
+			if (remaining <= 0) {
+				return true;
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep(remaining);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Places newly scheduled timeouts on the wheel
+	 */
+	private void transferPending() {
+		AsyncTimeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			if (timeout.isCancelled()) {
+				continue;
+			}
+			long expiryTick = Math.max(timeout.getDeadline() / tickNanos, tick);
+			timeout.remainingRounds = (expiryTick - tick) / wheel.size();
+			List<AsyncTimeout> bucket = wheel.get((int) (expiryTick & mask));
+			timeout.bucket = bucket;
+			timeout.index = bucket.size();
+			bucket.add(timeout);
+		}
+	}
+
+	/**
+	 * Takes cancelled timeouts off the wheel, so that long timeouts don't
+	 * hold on to their tasks until they would have expired. Each is swapped
+	 * with the last in its bucket, as order within a bucket doesn't matter.
+	 */
+	private void removeCancelled() {
+		AsyncTimeout timeout;
+		while ((timeout = cancelled.poll()) != null) {
+			List<AsyncTimeout> bucket = timeout.bucket;
+			if (bucket == null) {
+				// Never placed, or already gone
+				continue;
+			}
+			AsyncTimeout last = bucket.remove(bucket.size() - 1);
+			if (last != timeout) {
+				bucket.set(timeout.index, last);
+				last.index = timeout.index;
+			}
+			timeout.bucket = null;
+		}
+	}
+
+	private void expire(List<AsyncTimeout> bucket) {
+		int kept = 0;
+		for (int i = 0; i < bucket.size(); i++) {
+			AsyncTimeout timeout = bucket.get(i);
+			if (timeout.isCancelled()) {
+				timeout.bucket = null;
+				continue;
+			}
+			if (timeout.remainingRounds <= 0) {
+				timeout.bucket = null;
+				timeout.expire();
+				continue;
+			}
+			timeout.remainingRounds--;
+			timeout.index = kept;
+			bucket.set(kept++, timeout);
+		}
+		bucket.subList(kept, bucket.size()).clear();
+	}
+
+	/**
+	 * Queues a cancelled timeout to be taken off the wheel. NONBLOCKING
+	 *
+	 * @param timeout
+	 */
+	void cancelled(AsyncTimeout timeout) {
+		if (running) {
+			cancelled.add(timeout);
+		}
+	}
+
+	/**
+	 * Stops the timer. Timeouts that have not yet expired never run.
+	 */
+	public void close() {
+		running = false;
+		runner.interrupt();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public long getTickDuration(TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+
+}
@@ -0,0 +1,141 @@
+package com.spartango.io.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference-counted loan of a ByteBuffer from an AsyncBufferPool. The lease
+ * starts with a single reference held by whoever acquired it; anyone keeping
+ * the buffer beyond that must retain() it, and every reference must be
+ * released exactly once. The buffer returns to its pool when the last
+ * reference is released, after which it must not be touched.
+ * 
+ * @see AsyncBufferPool
+ * @author anand
+ * 
+ */
+public class AsyncBufferLease {
+	private final AsyncBufferPool pool;
+	private final ByteBuffer buffer;
+	private final AtomicInteger references;
+	private final AsyncBufferLease parent;
+
+	AsyncBufferLease(AsyncBufferPool pool, ByteBuffer buffer) {
+		this.pool = pool;
+		this.buffer = buffer;
+		references = new AtomicInteger(1);
+		parent = null;
+	}
+
+	/**
+	 * Creates an unpooled lease over an existing buffer, so that it can be
+	 * handed out where a lease is expected
+	 * 
+	 * @param buffer
+	 */
+	public AsyncBufferLease(ByteBuffer buffer) {
+		this((AsyncBufferPool) null, buffer);
+	}
+
+	private AsyncBufferLease(AsyncBufferLease parent, ByteBuffer buffer) {
+		pool = null;
+		this.buffer = buffer;
+		references = null;
+		this.parent = parent;
+	}
+
+	/**
+	 * Creates a lease over part of this buffer, sharing this lease's
+	 * references: retaining or releasing the slice retains or releases the
+	 * whole buffer.
+	 * 
+	 * @param offset
+	 *            from the start of the buffer
+	 * @param length
+	 * @return
+	 */
+	public AsyncBufferLease slice(int offset, int length) {
+		ByteBuffer view = buffer.duplicate();
+		view.limit(offset + length).position(offset);
+		return new AsyncBufferLease(parent != null ? parent : this,
+				view.slice());
+	}
+
+	/**
+	 * The leased buffer. Readers should use absolute gets or a duplicate(),
+	 * as the position and limit are shared by every holder of the lease.
+	 * 
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	/**
+	 * Adds a reference, keeping the buffer out of the pool until it is
+	 * released
+	 * 
+	 * @return this lease
+	 */
+	public AsyncBufferLease retain() {
+		if (parent != null) {
+			parent.retain();
+			return this;
+		}
+
+		int count;
+		do {
+			count = references.get();
+			if (count <= 0) {
+				throw new IllegalStateException("Lease already released");
+			}
+		} while (!references.compareAndSet(count, count + 1));
+		return this;
+	}
+
+	/**
+	 * Drops a reference, returning the buffer to its pool if it was the last
+	 * 
+	 * @return whether the buffer was returned
+	 */
+	public boolean release() {
+		if (parent != null) {
+			return parent.release();
+		}
+
+		int count = references.decrementAndGet();
+		if (count < 0) {
+			throw new IllegalStateException("Lease already released");
+		}
+		if (count == 0) {
+			if (pool != null) {
+				pool.recycle(buffer);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Copies the buffer's remaining bytes into a new array, leaving the
+	 * buffer untouched
+	 * 
+	 * @return
+	 */
+	public byte[] copy() {
+		byte[] data = new byte[buffer.remaining()];
+		if (buffer.hasArray()) {
+			System.arraycopy(buffer.array(),
+					buffer.arrayOffset() + buffer.position(), data, 0,
+					data.length);
+		} else {
+			buffer.duplicate().get(data);
+		}
+		return data;
+	}
+
+	public int getReferenceCount() {
+		return parent != null ? parent.getReferenceCount() : references.get();
+	}
+
+}
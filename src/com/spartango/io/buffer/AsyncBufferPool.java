@@ -0,0 +1,136 @@
+package com.spartango.io.buffer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A pool of reusable ByteBuffers in power-of-two size classes, so that
+ * readers can cycle the same memory rather than allocating per read. Buffers
+ * are lent out as AsyncBufferLeases. Requests larger than the largest class
+ * are allocated unpooled.
+ * 
+ * @see AsyncBufferLease
+ * @author anand
+ * 
+ */
+public class AsyncBufferPool {
+	private static final int DEFAULT_MIN_SIZE = 256;
+	private static final int DEFAULT_MAX_SIZE = 64 * 1024;
+	private static final int DEFAULT_BUFFERS_PER_CLASS = 256;
+
+	private final boolean direct;
+	private final int minShift;
+	private final int maxSize;
+	private final SizeClass[] sizeClasses;
+
+	/**
+	 * Creates a heap buffer pool with the default size classes
+	 */
+	public AsyncBufferPool() {
+		this(false, DEFAULT_MIN_SIZE, DEFAULT_MAX_SIZE,
+				DEFAULT_BUFFERS_PER_CLASS);
+	}
+
+	/**
+	 * Creates a pool whose size classes run in powers of two from minSize to
+	 * maxSize (rounded up to powers of two)
+	 * 
+	 * @param direct
+	 *            whether to allocate direct rather than heap buffers
+	 * @param minSize
+	 * @param maxSize
+	 * @param buffersPerClass
+	 *            how many idle buffers each size class may keep
+	 */
+	public AsyncBufferPool(boolean direct, int minSize, int maxSize,
+			int buffersPerClass) {
+		if (minSize < 1 || maxSize < minSize) {
+			throw new IllegalArgumentException("Invalid size classes: "
+					+ minSize + " to " + maxSize);
+		}
+
+		this.direct = direct;
+		minShift = shiftFor(minSize);
+		int maxShift = shiftFor(maxSize);
+		this.maxSize = 1 << maxShift;
+
+		sizeClasses = new SizeClass[maxShift - minShift + 1];
+		for (int i = 0; i < sizeClasses.length; i++) {
+			sizeClasses[i] = new SizeClass(1 << (minShift + i),
+					buffersPerClass);
+		}
+	}
+
+	/**
+	 * Lends out a cleared buffer with a capacity of at least size. The
+	 * buffer's limit is set to size.
+	 * 
+	 * @param size
+	 * @return
+	 */
+	public AsyncBufferLease acquire(int size) {
+		if (size > maxSize) {
+			ByteBuffer buffer = allocate(size);
+			return new AsyncBufferLease(null, buffer);
+		}
+
+		SizeClass sizeClass = sizeClasses[indexFor(size)];
+		ByteBuffer buffer = sizeClass.free.poll();
+		if (buffer == null) {
+			buffer = allocate(sizeClass.size);
+		}
+		buffer.limit(size);
+		return new AsyncBufferLease(this, buffer);
+	}
+
+	/**
+	 * Takes a buffer back into its size class, discarding it if the class is
+	 * full
+	 * 
+	 * @param buffer
+	 */
+	void recycle(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (capacity > maxSize || Integer.bitCount(capacity) != 1
+				|| capacity < (1 << minShift)) {
+			return;
+		}
+
+		buffer.clear();
+		sizeClasses[indexFor(capacity)].free.offer(buffer);
+	}
+
+	private ByteBuffer allocate(int size) {
+		return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer
+				.allocate(size);
+	}
+
+	private int indexFor(int size) {
+		return Math.max(0, shiftFor(size) - minShift);
+	}
+
+	private static int shiftFor(int size) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1);
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	private static class SizeClass {
+		private final int size;
+		// Bounded, and allocation-free once warm
+		private final BlockingQueue<ByteBuffer> free;
+
+		private SizeClass(int size, int capacity) {
+			this.size = size;
+			free = new ArrayBlockingQueue<ByteBuffer>(capacity);
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package com.spartango.io.dataread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+
+import com.spartango.io.buffer.AsyncBufferLease;
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncChannelHandler;
+
+/**
+ * An AsyncDataReader driven by an AsyncEventLoop rather than a dedicated
+ * thread. Reads are performed whenever the channel becomes readable, and
+ * delivered to the same listeners as a stream-based reader.
+ *
+ * @see AsyncChannel
+ * @author anand
+ *
+ */
+public class AsyncChannelDataReader extends AsyncDataReader implements
+		AsyncChannelHandler {
+	private final AsyncChannel channel;
+	private volatile boolean started;
+	private ByteBuffer readBuffer;
+
+	/**
+	 * Creates a reader bound to the given channel, but does not start
+	 * publishing events.
+	 *
+	 * @param channel
+	 * @param length
+	 */
+	public AsyncChannelDataReader(AsyncChannel channel, int length) {
+		super(null, length);
+		this.channel = channel;
+		readBuffer = null; // allocated for the first read
+
+		channel.setHandler(SelectionKey.OP_READ, this);
+	}
+
+	/**
+	 * Starts publishing events to listeners, unless reading is paused
+	 */
+	@Override
+	public void start() {
+		started = true;
+		readingChanged();
+	}
+
+	/**
+	 * Follows pausing and resuming with interest in reads, on the loop, so
+	 * that the latest state wins whichever thread changed it
+	 */
+	@Override
+	protected void readingChanged() {
+		if (!started) {
+			return;
+		}
+
+		channel.getLoop().execute(new Runnable() {
+			public void run() {
+				if (isReadingPaused()) {
+					channel.disable(SelectionKey.OP_READ);
+				} else {
+					channel.enable(SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onReady(AsyncChannel source) {
+		if (getBufferPool() != null) {
+			receivePooled();
+			return;
+		}
+
+		int length = getReadLength();
+		if (readBuffer == null || readBuffer.capacity() != length) {
+			readBuffer = ByteBuffer.allocate(length);
+		}
+		try {
+			int dataLength = ((ReadableByteChannel) channel.getChannel())
+					.read(readBuffer);
+			if (dataLength < 0) {
+				channel.close();
+			} else if (dataLength > 0) {
+				notifyNewData(
+						Arrays.copyOf(readBuffer.array(), dataLength),
+						dataLength);
+			}
+		} catch (IOException e) {
+			notifyReadFailure(e);
+			channel.close();
+		} finally {
+			readBuffer.clear();
+		}
+	}
+
+	private void receivePooled() {
+		AsyncBufferLease lease = getBufferPool().acquire(getReadLength());
+		try {
+			ByteBuffer target = lease.getBuffer();
+			int dataLength = ((ReadableByteChannel) channel.getChannel())
+					.read(target);
+			if (dataLength < 0) {
+				channel.close();
+			} else if (dataLength > 0) {
+				target.flip();
+				notifyNewData(lease, dataLength);
+			}
+		} catch (IOException e) {
+			notifyReadFailure(e);
+			channel.close();
+		} finally {
+			lease.release();
+		}
+	}
+
+	@Override
+	public void onClosed(AsyncChannel source) {
+		notifyInputClosed();
+	}
+
+	@Override
+	public void close() {
+		channel.close();
+	}
+
+}
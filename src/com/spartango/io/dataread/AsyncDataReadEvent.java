@@ -1,25 +1,90 @@
 package com.spartango.io.dataread;
 
 import com.spartango.io.AsyncIOEvent;
+import com.spartango.io.buffer.AsyncBufferLease;
 
 public class AsyncDataReadEvent extends AsyncIOEvent {
-	private final byte[] data;
+	private byte[] data;
+	private AsyncBufferLease lease;
 	private final AsyncDataReader source;
 
-	private final int dataLength;
+	private int dataLength;
 
 	public AsyncDataReadEvent(AsyncDataReader source, int type, byte[] data,
 			int length, Exception e) {
 		super(type, e);
 		this.source = source;
 		this.data = data;
+		lease = null;
 		dataLength = length;
 	}
 
+	/**
+	 * Creates an event whose data lives in a pooled buffer, which the reader
+	 * releases once every listener has been notified
+	 * 
+	 * @param source
+	 * @param type
+	 * @param lease
+	 * @param length
+	 * @param e
+	 */
+	public AsyncDataReadEvent(AsyncDataReader source, int type,
+			AsyncBufferLease lease, int length, Exception e) {
+		super(type, e);
+		this.source = source;
+		this.lease = lease;
+		dataLength = length;
+	}
+
+	/**
+	 * Refills a reused success event with the data from a new read
+	 * 
+	 * @param data
+	 * @param lease
+	 * @param length
+	 */
+	void reset(byte[] data, AsyncBufferLease lease, int length) {
+		reset(SUCCESS, null);
+		this.data = data;
+		this.lease = lease;
+		dataLength = length;
+	}
+
+	/**
+	 * An independent copy of this event, safe to keep after the callback
+	 * returns. Data held in a pooled buffer is copied out of it.
+	 * 
+	 * @return
+	 */
+	public AsyncDataReadEvent copy() {
+		return new AsyncDataReadEvent(source, type, getData(), dataLength,
+				error);
+	}
+
+	/**
+	 * The data received. For pooled reads, this is a copy made on first call,
+	 * and is safe to keep after the callback returns.
+	 * 
+	 * @return
+	 */
 	public byte[] getData() {
+		if (data == null && lease != null) {
+			data = lease.copy();
+		}
 		return data;
 	}
 
+	/**
+	 * The pooled buffer holding the data, or null if the reader is not
+	 * pooling. Only valid during the callback unless retained.
+	 * 
+	 * @return
+	 */
+	public AsyncBufferLease getLease() {
+		return lease;
+	}
+
 	public AsyncDataReader getSource() {
 		return source;
 	}
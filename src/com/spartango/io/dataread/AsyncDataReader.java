@@ -2,8 +2,19 @@ package com.spartango.io.dataread;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import com.spartango.io.AsyncListenerList;
+import com.spartango.io.AsyncReadGate;
+import com.spartango.io.AsyncSerialExecutor;
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.buffer.AsyncBufferLease;
+import com.spartango.io.buffer.AsyncBufferPool;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.metrics.AsyncMetricsRegistry;
 
 /**
  * Provides an asynchronous system for receiving data from a reader as it is
@@ -16,14 +27,21 @@ import java.util.Vector;
 public class AsyncDataReader implements Runnable {
 	private int sleepTime = 0; // ms
 
-	private List<AsyncDataReadListener> listeners;
+	private final AsyncListenerList<AsyncDataReadListener> listeners;
 	private InputStream input;
 	private Thread runner;
 
-	private int readLength;
+	private volatile int readLength;
+	private volatile AsyncReceiveSizer sizer; // null -- fixed read length
 	private byte[] buffer;
+	private AsyncBufferPool bufferPool;
+	private Executor dispatchExecutor;
+	private Executor dispatcher;
+	private AsyncDataReadEvent reusableEvent; // null -- allocate per read
+	private AsyncMetrics metrics;
+	private final AsyncReadGate gate;
 
-	private boolean running;
+	private volatile boolean running;
 
 	/**
 	 * Creates an asynchronous reader to provide events to listeners, but does
@@ -32,12 +50,28 @@ public class AsyncDataReader implements Runnable {
 	 * @param bufferedReader
 	 */
 	public AsyncDataReader(InputStream in, int length) {
+		this(in, length, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Creates an asynchronous reader whose runner comes from the given
+	 * factory, such as AsyncThreads.virtualThreads(), but does not start
+	 * publishing events.
+	 * 
+	 * @param in
+	 * @param length
+	 * @param threads
+	 */
+	public AsyncDataReader(InputStream in, int length, ThreadFactory threads) {
 		running = false;
-		listeners = new Vector<AsyncDataReadListener>();
+		listeners = new AsyncListenerList<AsyncDataReadListener>(
+				AsyncDataReadListener.class);
 		input = in;
-		runner = new Thread(this);
+		runner = threads.newThread(this);
 		readLength = length;
-		buffer = new byte[readLength];
+		buffer = new byte[0]; // allocated for the first read
+		metrics = AsyncMetricsRegistry.getDefault();
+		gate = new AsyncReadGate();
 	}
 
 	/**
@@ -49,37 +83,167 @@ public class AsyncDataReader implements Runnable {
 		}
 	}
 
-	private synchronized void executeReceive() {
+	/**
+	 * Performs one read and notifies listeners of it. Called repeatedly by
+	 * the runner until closed.
+	 */
+	protected void executeReceive() {
+		if (bufferPool != null) {
+			executePooledReceive();
+			return;
+		}
+
+		int length = getReadLength();
+		if (buffer.length != length) {
+			buffer = new byte[length];
+		}
 		try {
-			int dataLength = input.read(buffer);
-			notifyNewData(buffer.clone(), dataLength);
+			int dataLength = input.read(buffer, 0, length);
+			notifyNewData(Arrays.copyOf(buffer, Math.max(dataLength, 0)),
+					dataLength);
 		} catch (IOException e) {
 			notifyReadFailure(e);
 		}
 	}
 
-	private void notifyReadFailure(Exception e) {
-		// Create an immutable event
-		AsyncDataReadEvent event = new AsyncDataReadEvent(this,
-				AsyncDataReadEvent.FAILURE, null, 0, e);
-		for (AsyncDataReadListener listener : listeners) {
-			listener.onReceiveFailed(event);
+	private void executePooledReceive() {
+		int length = getReadLength();
+		AsyncBufferLease lease = bufferPool.acquire(length);
+		try {
+			ByteBuffer target = lease.getBuffer();
+			int dataLength = input.read(target.array(), target.arrayOffset(),
+					length);
+			target.limit(Math.max(dataLength, 0));
+			notifyNewData(lease, dataLength);
+		} catch (IOException e) {
+			notifyReadFailure(e);
+		} finally {
+			lease.release();
 		}
 	}
 
-	private void notifyNewData(byte[] bs, int dataLength) {
+	protected void notifyReadFailure(Exception e) {
+		// Create an immutable event
+		publish(new AsyncDataReadEvent(this, AsyncDataReadEvent.FAILURE,
+				(byte[]) null, 0, e));
+	}
+
+	protected void notifyNewData(byte[] bs, int dataLength) {
+		recordRead(dataLength);
+		if (reusableEvent != null && dispatcher == null) {
+			reusableEvent.reset(bs, null, dataLength);
+			deliver(reusableEvent);
+			return;
+		}
+
 		// Create an immutable event
-		AsyncDataReadEvent event = new AsyncDataReadEvent(this,
-				AsyncDataReadEvent.SUCCESS, bs, dataLength, null);
-		for (AsyncDataReadListener listener : listeners) {
-			listener.onDataReceived(event);
+		publish(new AsyncDataReadEvent(this, AsyncDataReadEvent.SUCCESS, bs,
+				dataLength, null));
+	}
+
+	/**
+	 * Notifies listeners of data held in a pooled buffer. The caller keeps
+	 * its reference to the lease, and releases it afterwards.
+	 * 
+	 * @param lease
+	 * @param dataLength
+	 */
+	protected void notifyNewData(final AsyncBufferLease lease, int dataLength) {
+		recordRead(dataLength);
+		if (reusableEvent != null && dispatcher == null) {
+			reusableEvent.reset(null, lease, dataLength);
+			deliver(reusableEvent);
+			reusableEvent.reset(null, null, 0);
+			return;
 		}
+
+		final AsyncDataReadEvent event = new AsyncDataReadEvent(this,
+				AsyncDataReadEvent.SUCCESS, lease, dataLength, null);
+		if (dispatcher == null) {
+			deliver(event);
+			return;
+		}
+
+		// The lease must outlive this call, until the dispatched delivery
+		lease.retain();
+		acquirePending();
+		dispatcher.execute(new Runnable() {
+			public void run() {
+				try {
+					deliver(event);
+				} finally {
+					lease.release();
+					releasePending();
+				}
+			}
+		});
+	}
+
+	private void recordRead(int dataLength) {
+		if (dataLength > 0) {
+			metrics.onRead(dataLength);
+			AsyncReceiveSizer current = sizer;
+			if (current != null) {
+				current.record(dataLength);
+			}
+		}
+		metrics.onMessageRead();
+	}
+
+	private void publish(final AsyncDataReadEvent event) {
+		if (dispatcher == null) {
+			deliver(event);
+			return;
+		}
+
+		acquirePending();
+		dispatcher.execute(new Runnable() {
+			public void run() {
+				try {
+					deliver(event);
+				} finally {
+					releasePending();
+				}
+			}
+		});
+	}
+
+	private void acquirePending() {
+		if (gate.acquire()) {
+			readingChanged();
+		}
+	}
+
+	private void releasePending() {
+		if (gate.release()) {
+			readingChanged();
+		}
+	}
+
+	private void deliver(AsyncDataReadEvent event) {
+		long start = System.nanoTime();
+		for (AsyncDataReadListener listener : listeners.getListeners()) {
+			if (event.getType() == AsyncDataReadEvent.SUCCESS) {
+				listener.onDataReceived(event);
+			} else {
+				listener.onReceiveFailed(event);
+			}
+		}
+		metrics.onListenerCallback(System.nanoTime() - start);
 	}
 
 	@Override
 	public void run() {
 		running = true;
 		while (running) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				close();
+			}
+			if (!running) {
+				break;
+			}
 			executeReceive();
 			pause();
 		}
@@ -99,7 +263,9 @@ public class AsyncDataReader implements Runnable {
 
 	private void cleanup() {
 		try {
-			input.close();
+			if (input != null) {
+				input.close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -107,15 +273,15 @@ public class AsyncDataReader implements Runnable {
 		notifyInputClosed();
 	}
 
-	private void notifyInputClosed() {
-		for (AsyncDataReadListener listener : listeners) {
-			listener.onReceiveFailed(new AsyncDataReadEvent(this,
-					AsyncDataReadEvent.CLOSURE, null, 0, null));
-		}
+	protected void notifyInputClosed() {
+		metrics.onConnectionClosed();
+		publish(new AsyncDataReadEvent(this, AsyncDataReadEvent.CLOSURE,
+				(byte[]) null, 0, null));
 	}
 
 	public void close() {
 		running = false;
+		gate.close();
 	}
 
 	public void addAsyncDataReadListener(AsyncDataReadListener listener) {
@@ -134,12 +300,191 @@ public class AsyncDataReader implements Runnable {
 		this.sleepTime = sleepTime;
 	}
 
+	public AsyncBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Reads into buffers leased from the given pool rather than cloning a
+	 * fixed buffer on every read. Listeners may use the event's lease
+	 * directly, or fall back to getData() for a copy. Stream readers need a
+	 * heap pool.
+	 * 
+	 * @param bufferPool
+	 *            the pool, or null to stop pooling
+	 */
+	public void setBufferPool(AsyncBufferPool bufferPool) {
+		if (bufferPool != null && bufferPool.isDirect() && input != null) {
+			throw new IllegalArgumentException(
+					"Stream readers require a heap buffer pool");
+		}
+		this.bufferPool = bufferPool;
+	}
+
+	public boolean isReusingEvents() {
+		return reusableEvent != null;
+	}
+
+	/**
+	 * Notifies listeners of each read through one reused event rather than
+	 * a new event per read. A reused event is only valid during the callback;
+	 * listeners that keep it must keep a copy(). Events are still allocated
+	 * while a dispatch executor is set.
+	 * 
+	 * @param reuseEvents
+	 */
+	public void setReusingEvents(boolean reuseEvents) {
+		reusableEvent = reuseEvents ? new AsyncDataReadEvent(this,
+				AsyncDataReadEvent.SUCCESS, (byte[]) null, 0, null) : null;
+	}
+
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	/**
+	 * Delivers events to listeners on the given executor rather than the
+	 * reading thread, so slow listeners never hold up reads. Events from this
+	 * reader still arrive in order, one at a time, even on a shared pool.
+	 * 
+	 * @param executor
+	 *            the executor, or null to notify listeners inline
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		dispatchExecutor = executor;
+		dispatcher = executor != null ? new AsyncSerialExecutor(executor)
+				: null;
+	}
+
+	/**
+	 * Stops reading until resumed, leaving data with the source: a socket's
+	 * receive buffer fills, and TCP slows the remote sender. A read already
+	 * underway still completes. NONBLOCKING
+	 */
+	public void pauseReading() {
+		if (gate.pause()) {
+			readingChanged();
+		}
+	}
+
+	/**
+	 * Reads again after pauseReading(), unless too many events are pending.
+	 * NONBLOCKING
+	 */
+	public void resumeReading() {
+		if (gate.resume()) {
+			readingChanged();
+		}
+	}
+
+	/**
+	 * Whether reading is paused, by hand or by too many pending events
+	 * 
+	 * @return
+	 */
+	public boolean isReadingPaused() {
+		return !gate.isOpen();
+	}
+
+	/**
+	 * Called when reading is paused or resumed, on whichever thread did so,
+	 * for readers that must stop reading themselves rather than wait
+	 */
+	protected void readingChanged() {
+	}
+
+	/**
+	 * The events handed to the dispatch executor and not yet delivered
+	 * 
+	 * @return
+	 */
+	public int getPendingEvents() {
+		return gate.getPending();
+	}
+
+	public int getMaxPendingEvents() {
+		return gate.getMaxPending();
+	}
+
+	/**
+	 * Pauses reading while the given number of events wait on the dispatch
+	 * executor, until half of them have been delivered, so that slow
+	 * listeners hold up the sender rather than queueing reads without bound.
+	 * Listeners notified inline already hold up reading.
+	 * 
+	 * @param maxPendingEvents
+	 *            or 0 for no limit
+	 */
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		if (gate.setMaxPending(maxPendingEvents)) {
+			readingChanged();
+		}
+	}
+
+	public AsyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports this reader's reads and listener times to the given metrics
+	 * rather than the registry's default. Set before starting.
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * The most bytes the next read will take, which varies with traffic if
+	 * adaptive
+	 * 
+	 * @return
+	 */
 	public int getReadLength() {
-		return readLength;
+		AsyncReceiveSizer current = sizer;
+		return current != null ? current.getNextSize() : readLength;
 	}
 
+	/**
+	 * Sets the most bytes each read takes, from the next read on. If
+	 * adaptive, this is where sizing starts again from.
+	 * 
+	 * @param readLength
+	 */
 	public void setReadLength(int readLength) {
 		this.readLength = readLength;
+		AsyncReceiveSizer current = sizer;
+		if (current != null) {
+			sizer = new AsyncReceiveSizer(current.getMinimum(), readLength,
+					current.getMaximum());
+		}
+	}
+
+	public boolean isAdaptiveReadLength() {
+		return sizer != null;
+	}
+
+	/**
+	 * Sizes each read from the reads before it, between the given bounds and
+	 * starting from the read length, so that buffers follow the traffic
+	 * rather than the worst case: growing quickly when reads fill them, and
+	 * shrinking slowly when they don't.
+	 * 
+	 * @see AsyncReceiveSizer
+	 * @param minReadLength
+	 * @param maxReadLength
+	 */
+	public void setAdaptiveReadLength(int minReadLength, int maxReadLength) {
+		sizer = new AsyncReceiveSizer(minReadLength, readLength,
+				maxReadLength);
+	}
+
+	/**
+	 * Goes back to reading a fixed length, the last set
+	 */
+	public void setFixedReadLength() {
+		sizer = null;
 	}
 
 }
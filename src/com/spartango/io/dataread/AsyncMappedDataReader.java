@@ -0,0 +1,190 @@
+package com.spartango.io.dataread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadFactory;
+
+import com.spartango.io.AsyncMappedFile;
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.buffer.AsyncBufferLease;
+
+/**
+ * An AsyncDataReader over a memory-mapped file, for replaying or tailing
+ * large local files at memory speed rather than stream speed. Each read is a
+ * slice of the mapping, up to the read length, delivered through the event's
+ * lease without being copied; getData() still returns a copy. Slices stay
+ * valid after the callback, unless the file is truncated.
+ *
+ * When following, the reader waits at the end of the file for it to grow,
+ * like tail -f, and starts again from the beginning if it is truncated.
+ *
+ * @see AsyncMappedFile
+ * @author anand
+ *
+ */
+public class AsyncMappedDataReader extends AsyncDataReader {
+	private final AsyncMappedFile file;
+
+	private boolean following;
+	private int followInterval = 100; // ms
+
+	private long base; // file position of the window
+	private ByteBuffer window;
+	private int offset; // next byte to read, in the window
+
+	/**
+	 * Opens a file to be read from the start, but does not start publishing
+	 * events. BLOCKING
+	 *
+	 * @param path
+	 * @param length
+	 *            most bytes per read
+	 * @throws IOException
+	 */
+	public AsyncMappedDataReader(Path path, int length) throws IOException {
+		this(path, length, AsyncMappedFile.DEFAULT_WINDOW,
+				AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Opens a file to be read from the start, with the runner from the given
+	 * factory. Does not start publishing events. BLOCKING
+	 *
+	 * @param path
+	 * @param length
+	 *            most bytes per read
+	 * @param windowSize
+	 *            most bytes mapped at once
+	 * @param threads
+	 * @throws IOException
+	 */
+	public AsyncMappedDataReader(Path path, int length, int windowSize,
+			ThreadFactory threads) throws IOException {
+		super(null, length, threads);
+		file = new AsyncMappedFile(path, windowSize);
+		base = 0;
+		window = null;
+		offset = 0;
+	}
+
+	@Override
+	protected void executeReceive() {
+		try {
+			if ((window == null || offset == window.limit()) && !advance()) {
+				return;
+			}
+
+			int length = Math.min(getReadLength(), window.limit() - offset);
+			ByteBuffer slice = window.duplicate();
+			slice.limit(offset + length).position(offset);
+			offset += length;
+
+			AsyncBufferLease lease = new AsyncBufferLease(slice.slice());
+			try {
+				notifyNewData(lease, length);
+			} finally {
+				lease.release();
+			}
+		} catch (IOException e) {
+			notifyReadFailure(e);
+			close();
+		}
+	}
+
+	/**
+	 * Maps the next window of the file, waiting for it to grow if following
+	 *
+	 * @return whether there is more to read
+	 * @throws IOException
+	 */
+	private boolean advance() throws IOException {
+		long next = window != null ? base + offset : base;
+		long size = file.size();
+		if (size < next) {
+			// Truncated, as by log rotation
+			next = 0;
+		}
+
+		if (next < size) {
+			base = next;
+			window = file.map(base);
+			offset = 0;
+			return true;
+		}
+
+		if (!following) {
+			close();
+		} else {
+			try {
+				Thread.sleep(followInterval);
+			} catch (InterruptedException e) {
+				close();
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void run() {
+		try {
+			super.run();
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public boolean isFollowing() {
+		return following;
+	}
+
+	/**
+	 * Waits at the end of the file for more to be appended, rather than
+	 * closing
+	 *
+	 * @param following
+	 */
+	public void setFollowing(boolean following) {
+		this.following = following;
+	}
+
+	public int getFollowInterval() {
+		return followInterval;
+	}
+
+	/**
+	 * How often to check whether a followed file has grown
+	 *
+	 * @param followInterval
+	 *            ms
+	 */
+	public void setFollowInterval(int followInterval) {
+		this.followInterval = followInterval;
+	}
+
+	/**
+	 * The position in the file of the next read
+	 *
+	 * @return
+	 */
+	public long getPosition() {
+		return window != null ? base + offset : base;
+	}
+
+	/**
+	 * Sets where to start reading, such as the file's size to read only what
+	 * is appended. Set before starting.
+	 *
+	 * @param position
+	 */
+	public void setPosition(long position) {
+		base = position;
+		window = null;
+		offset = 0;
+	}
+
+}
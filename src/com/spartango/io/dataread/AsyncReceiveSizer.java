@@ -0,0 +1,128 @@
+package com.spartango.io.dataread;
+
+/**
+ * Guesses how large the next read should be from the reads before it, within
+ * bounds. Sizes step through a table (by 16 bytes up to 512, then doubling):
+ * a read that fills its buffer jumps several steps up at once, and two reads
+ * in a row that would have fit a step lower drop one step down, so that the
+ * size follows bursts quickly and quiet periods slowly. A step outside the
+ * bounds is read at the nearest bound.
+ *
+ * @see AsyncDataReader#setAdaptiveReadLength(int, int)
+ * @author anand
+ *
+ */
+public class AsyncReceiveSizer {
+	private static final int INCREMENT = 4;
+	private static final int DECREMENT = 1;
+	private static final int[] SIZES = sizeTable();
+
+	private final int minimum;
+	private final int maximum;
+	private final int minIndex;
+	private final int maxIndex;
+	private int index;
+	private int nextSize;
+	private boolean decreaseNow;
+
+	/**
+	 * @param minimum
+	 *            smallest read, in bytes
+	 * @param initial
+	 *            first read, in bytes
+	 * @param maximum
+	 *            largest read, in bytes
+	 */
+	public AsyncReceiveSizer(int minimum, int initial, int maximum) {
+		if (minimum <= 0 || maximum < minimum) {
+			throw new IllegalArgumentException("Invalid read bounds: "
+					+ minimum + " to " + maximum);
+		}
+
+		this.minimum = minimum;
+		this.maximum = maximum;
+		minIndex = indexOf(minimum);
+		maxIndex = indexOf(maximum);
+
+		index = Math.min(Math.max(indexOf(initial), minIndex), maxIndex);
+		nextSize = sizeAt(index);
+		decreaseNow = false;
+	}
+
+	/**
+	 * The size to read next
+	 *
+	 * @return
+	 */
+	public int getNextSize() {
+		return nextSize;
+	}
+
+	/**
+	 * Adjusts the next size for a completed read
+	 *
+	 * @param bytesRead
+	 */
+	public void record(int bytesRead) {
+		if (bytesRead <= SIZES[Math.max(0, index - DECREMENT)]) {
+			if (decreaseNow) {
+				index = Math.max(index - DECREMENT, minIndex);
+				nextSize = sizeAt(index);
+				decreaseNow = false;
+			} else {
+				decreaseNow = true;
+			}
+		} else if (bytesRead >= nextSize) {
+			index = Math.min(index + INCREMENT, maxIndex);
+			nextSize = sizeAt(index);
+			decreaseNow = false;
+		}
+	}
+
+	public int getMinimum() {
+		return minimum;
+	}
+
+	public int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * The size of a step, clamped to the bounds
+	 */
+	private int sizeAt(int step) {
+		return Math.max(minimum, Math.min(SIZES[step], maximum));
+	}
+
+	/**
+	 * Finds the smallest size in the table of at least the given size, or
+	 * the largest
+	 */
+	private static int indexOf(int size) {
+		int low = 0;
+		int high = SIZES.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (SIZES[mid] < size) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private static int[] sizeTable() {
+		int small = 512 / 16 - 1; // 16 to 496
+		int large = 31 - 9; // 512 to 2^30
+		int[] sizes = new int[small + large];
+		for (int i = 0; i < small; i++) {
+			sizes[i] = (i + 1) * 16;
+		}
+		for (int i = 0; i < large; i++) {
+			sizes[small + i] = 512 << i;
+		}
+		return sizes;
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.spartango.io.lineread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.charset.Charset;
+
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncChannelHandler;
+
+/**
+ * An AsyncLineReader driven by an AsyncEventLoop rather than a dedicated
+ * thread. Bytes are accumulated as the channel becomes readable, and each
+ * complete line (terminated by \n, \r or \r\n) is delivered to listeners.
+ *
+ * @see AsyncChannel
+ * @author anand
+ *
+ */
+public class AsyncChannelLineReader extends AsyncLineReader implements
+		AsyncChannelHandler {
+	private final AsyncChannel channel;
+	private volatile boolean started;
+
+	/**
+	 * Creates a reader bound to the given channel, decoding lines with the
+	 * platform charset
+	 *
+	 * @param channel
+	 */
+	public AsyncChannelLineReader(AsyncChannel channel) {
+		this(channel, Charset.defaultCharset(), 0);
+	}
+
+	/**
+	 * Creates a reader bound to the given channel, but does not start
+	 * publishing events.
+	 *
+	 * @param channel
+	 * @param charset
+	 *            an ASCII-compatible charset, such as UTF-8
+	 * @param maxLineLength
+	 *            longest line accepted, in bytes, or 0 for no limit
+	 * @throws IllegalArgumentException
+	 *             if the charset isn't ASCII-compatible, such as UTF-16
+	 */
+	public AsyncChannelLineReader(AsyncChannel channel, Charset charset,
+			int maxLineLength) {
+		super((InputStream) null, charset, maxLineLength);
+		this.channel = channel;
+
+		channel.setHandler(SelectionKey.OP_READ, this);
+	}
+
+	/**
+	 * Starts publishing events to listeners, unless reading is paused
+	 */
+	@Override
+	public void start() {
+		started = true;
+		readingChanged();
+	}
+
+	/**
+	 * Follows pausing and resuming with interest in reads, on the loop, so
+	 * that the latest state wins whichever thread changed it
+	 */
+	@Override
+	protected void readingChanged() {
+		if (!started) {
+			return;
+		}
+
+		channel.getLoop().execute(new Runnable() {
+			public void run() {
+				if (isReadingPaused()) {
+					channel.disable(SelectionKey.OP_READ);
+				} else {
+					channel.enable(SelectionKey.OP_READ);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void onReady(AsyncChannel source) {
+		try {
+			int dataLength = getFramer().fill(
+					(ReadableByteChannel) channel.getChannel());
+			if (dataLength < 0) {
+				notifyLastLine();
+				channel.close();
+			} else if (dataLength > 0) {
+				recordRead(dataLength);
+				notifyNewLines();
+			}
+		} catch (IOException e) {
+			notifyReadFailure(e);
+			channel.close();
+		}
+	}
+
+	@Override
+	public void onClosed(AsyncChannel source) {
+		notifyInputClosed();
+	}
+
+	@Override
+	public void close() {
+		channel.close();
+	}
+
+}
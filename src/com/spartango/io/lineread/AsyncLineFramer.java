@@ -0,0 +1,265 @@
+package com.spartango.io.lineread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits a byte stream into lines terminated by \n, \r or \r\n, as
+ * BufferedReader.readLine() does, without decoding it. Bytes are read into a
+ * growable buffer, which is searched for line ends eight bytes at a time;
+ * each line is exposed as a range of that buffer, valid until the next fill.
+ * As line ends are found as single bytes, the text must be in a charset that
+ * encodes \n and \r as they are in ASCII, such as UTF-8 or ISO-8859-1.
+ *
+ * @see AsyncLineReader
+ * @author anand
+ *
+ */
+public class AsyncLineFramer {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+	private static final long RETURNS = 0x0D0D0D0D0D0D0D0DL;
+
+	private final int maxLineLength;
+
+	private byte[] buffer;
+	private ByteBuffer words;
+	private int start;
+	private int end;
+	private int scanned;
+	private boolean discarding;
+	private boolean skipNewline; // after \r, in case of \r\n
+
+	private int lineStart;
+	private int lineLength;
+
+	/**
+	 * @param maxLineLength
+	 *            longest line accepted, in bytes, or 0 for no limit
+	 */
+	public AsyncLineFramer(int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+		setBuffer(new byte[INITIAL_CAPACITY]);
+		start = end = scanned = 0;
+		discarding = false;
+		skipNewline = false;
+	}
+
+	/**
+	 * Reads whatever is available from a stream. BLOCKING
+	 *
+	 * @param input
+	 * @return the number of bytes read, or -1 at end of stream
+	 * @throws IOException
+	 */
+	public int fill(InputStream input) throws IOException {
+		ensureWritable();
+		int count = input.read(buffer, end, buffer.length - end);
+		if (count > 0) {
+			end += count;
+		}
+		return count;
+	}
+
+	/**
+	 * Reads whatever is available from a channel
+	 *
+	 * @param input
+	 * @return the number of bytes read, or -1 at end of stream
+	 * @throws IOException
+	 */
+	public int fill(ReadableByteChannel input) throws IOException {
+		ensureWritable();
+		int count = input.read(ByteBuffer.wrap(buffer, end, buffer.length
+				- end));
+		if (count > 0) {
+			end += count;
+		}
+		return count;
+	}
+
+	/**
+	 * Finds the next complete line, exposing it through getLineStart() and
+	 * getLineLength(). A line over the max length is skipped up to its
+	 * terminator, and reported by throwing.
+	 *
+	 * @return whether a line was found
+	 * @throws IOException
+	 *             if a line is too long
+	 */
+	public boolean nextLine() throws IOException {
+		while (true) {
+			if (skipNewline && start < end) {
+				skipNewline = false;
+				if (buffer[start] == '\n') {
+					start++;
+					scanned = Math.max(scanned, start);
+				}
+			}
+
+			int lineEnd = indexOfLineEnd(buffer, words, scanned, end);
+			if (lineEnd < 0) {
+				scanned = end;
+				if (discarding) {
+					start = end;
+				} else if (maxLineLength > 0 && end - start > maxLineLength) {
+					return overflow();
+				}
+				return false;
+			}
+
+			boolean skipped = discarding;
+			lineStart = start;
+			lineLength = lineEnd - start;
+			skipNewline = buffer[lineEnd] == '\r';
+			start = scanned = lineEnd + 1;
+			discarding = false;
+
+			if (skipped) {
+				continue;
+			}
+			if (maxLineLength > 0 && lineLength > maxLineLength) {
+				throw new IOException("Line exceeds max length of "
+						+ maxLineLength);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Exposes any unterminated bytes as a final line, as at end of stream
+	 *
+	 * @return whether there was a partial line
+	 */
+	public boolean remainder() {
+		if (discarding || start == end) {
+			return false;
+		}
+		lineStart = start;
+		lineLength = end - start;
+		start = scanned = end;
+		return true;
+	}
+
+	private boolean overflow() throws IOException {
+		discarding = true;
+		start = scanned = end;
+		throw new IOException("Line exceeds max length of " + maxLineLength);
+	}
+
+	private void ensureWritable() {
+		if (start == end) {
+			start = end = scanned = 0;
+		}
+		if (end < buffer.length) {
+			return;
+		}
+
+		int pending = end - start;
+		byte[] target = buffer;
+		if (pending * 2 > buffer.length) {
+			target = new byte[buffer.length * 2];
+		}
+		System.arraycopy(buffer, start, target, 0, pending);
+		if (target != buffer) {
+			setBuffer(target);
+		}
+		scanned -= start;
+		end = pending;
+		start = 0;
+	}
+
+	private void setBuffer(byte[] array) {
+		buffer = array;
+		words = ByteBuffer.wrap(array).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Finds the first \n or \r in a range, testing a word at a time: a byte
+	 * of the word XORed with either pattern is zero exactly where it matched,
+	 * and the lowest zero byte is found by the usual borrow trick.
+	 */
+	static int indexOfLineEnd(byte[] array, ByteBuffer words, int from,
+			int to) {
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long word = words.getLong(i);
+			long newlines = word ^ NEWLINES;
+			long returns = word ^ RETURNS;
+			long found = ((newlines - ONES) & ~newlines | (returns - ONES)
+					& ~returns) & HIGHS;
+			if (found != 0) {
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+		for (; i < to; i++) {
+			if (array[i] == '\n' || array[i] == '\r') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first \n in a range of a little-endian buffer, such as a file
+	 * mapping, a word at a time
+	 */
+	static int indexOfNewline(ByteBuffer words, int from, int to) {
+		int i = from;
+		for (; i + 8 <= to; i += 8) {
+			long word = words.getLong(i) ^ NEWLINES;
+			long found = (word - ONES) & ~word & HIGHS;
+			if (found != 0) {
+				return i + (Long.numberOfTrailingZeros(found) >>> 3);
+			}
+		}
+		for (; i < to; i++) {
+			if (words.get(i) == '\n') {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks that a charset encodes \n and \r as single ASCII bytes, so that
+	 * lines can be split before decoding
+	 *
+	 * @param charset
+	 * @throws IllegalArgumentException
+	 *             if it doesn't, as UTF-16 and UTF-32 don't
+	 */
+	static void checkCharset(Charset charset) {
+		if (!Arrays.equals("\n\r".getBytes(charset), new byte[] { '\n',
+				'\r' })) {
+			throw new IllegalArgumentException(charset
+					+ " is not ASCII-compatible, so lines can't be framed"
+					+ " from its bytes");
+		}
+	}
+
+	public byte[] getArray() {
+		return buffer;
+	}
+
+	public int getLineStart() {
+		return lineStart;
+	}
+
+	public int getLineLength() {
+		return lineLength;
+	}
+
+	public int getMaxLineLength() {
+		return maxLineLength;
+	}
+
+}
@@ -1,22 +1,204 @@
 package com.spartango.io.lineread;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
 import com.spartango.io.AsyncIOEvent;
 
 public class AsyncLineReadEvent extends AsyncIOEvent {
-	private final String data;
+	private String data;
 	private final AsyncLineReader source;
 
+	private byte[] bytes;
+	private int offset;
+	private int length;
+	private ByteBuffer view; // holds the line instead of bytes, if set
+	private Charset charset;
+
 	public AsyncLineReadEvent(AsyncLineReader source, int type, String data,
 			Exception e) {
 		super(type, e);
 		this.source = source;
 		this.data = data;
+		bytes = null;
+		offset = length = 0;
+		view = null;
+		charset = null;
+	}
+
+	/**
+	 * Creates an event for an undecoded line, held as a range of the reader's
+	 * buffer. The range is only valid during the callback.
+	 *
+	 * @param source
+	 * @param type
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param charset
+	 */
+	public AsyncLineReadEvent(AsyncLineReader source, int type, byte[] bytes,
+			int offset, int length, Charset charset) {
+		super(type, null);
+		this.source = source;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		view = null;
+		this.charset = charset;
+	}
+
+	/**
+	 * Creates a success event for an undecoded line held as a range of a
+	 * buffer, such as a file mapping, which stays valid after the callback
+	 *
+	 * @param source
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @param charset
+	 */
+	AsyncLineReadEvent(AsyncLineReader source, ByteBuffer buffer, int offset,
+			int length, Charset charset) {
+		super(SUCCESS, null);
+		this.source = source;
+		view = buffer;
+		this.offset = offset;
+		this.length = length;
+		this.charset = charset;
+	}
+
+	/**
+	 * Refills a reused success event with a new line of text
+	 * 
+	 * @param data
+	 */
+	void reset(String data) {
+		reset(data, null, 0, 0, null, null);
+	}
+
+	/**
+	 * Refills a reused success event with a new undecoded line
+	 * 
+	 * @param bytes
+	 * @param offset
+	 * @param length
+	 * @param charset
+	 */
+	void reset(byte[] bytes, int offset, int length, Charset charset) {
+		reset(null, bytes, offset, length, null, charset);
+	}
+
+	/**
+	 * Refills a reused success event with a new undecoded line held as a
+	 * range of a buffer
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @param charset
+	 */
+	void reset(ByteBuffer buffer, int offset, int length, Charset charset) {
+		reset(null, null, offset, length, buffer, charset);
+	}
+
+	private void reset(String data, byte[] bytes, int offset, int length,
+			ByteBuffer view, Charset charset) {
+		reset(SUCCESS, null);
+		this.data = data;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.view = view;
+		this.charset = charset;
+	}
+
+	/**
+	 * An independent copy of this event, safe to keep after the callback
+	 * returns. An undecoded line is copied out of the reader's buffer.
+	 * 
+	 * @return
+	 */
+	public AsyncLineReadEvent copy() {
+		if (bytes == null && view == null) {
+			return new AsyncLineReadEvent(source, type, data, error);
+		}
+
+		byte[] line;
+		if (view != null) {
+			line = new byte[length];
+			range().get(line);
+		} else {
+			line = Arrays.copyOfRange(bytes, offset, offset + length);
+		}
+		AsyncLineReadEvent copy = new AsyncLineReadEvent(source, type, line,
+				0, length, charset);
+		copy.data = data;
+		return copy;
 	}
 
+	/**
+	 * The line received. Lines read as bytes are decoded on the first call,
+	 * which must happen during the callback; the result is safe to keep.
+	 *
+	 * @return
+	 */
 	public String getData() {
+		if (data == null && bytes != null) {
+			data = new String(bytes, offset, length, charset);
+		} else if (data == null && view != null) {
+			// Faster than a CharsetDecoder over the buffer
+			byte[] line = new byte[length];
+			range().get(line);
+			data = new String(line, charset);
+		}
 		return data;
 	}
 
+	/**
+	 * The undecoded line, as a view of the reader's buffer that is only
+	 * valid during the callback (unless read from a file mapping), or null
+	 * if the line was read as text
+	 *
+	 * @return
+	 */
+	public ByteBuffer getBytes() {
+		if (view != null) {
+			return range().slice();
+		}
+		return bytes != null ? ByteBuffer.wrap(bytes, offset, length).slice()
+				: null;
+	}
+
+	/**
+	 * Checks whether the line starts with the given bytes, without decoding it
+	 *
+	 * @param prefix
+	 * @return
+	 */
+	public boolean startsWith(byte[] prefix) {
+		if (bytes == null && view == null) {
+			return getData().startsWith(new String(prefix));
+		}
+		if (prefix.length > length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			byte b = view != null ? view.get(offset + i) : bytes[offset + i];
+			if (b != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private ByteBuffer range() {
+		ByteBuffer range = view.duplicate();
+		range.limit(offset + length).position(offset);
+		return range;
+	}
+
 	public AsyncLineReader getSource() {
 		return source;
 	}
@@ -2,9 +2,20 @@ package com.spartango.io.lineread;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
-import java.util.List;
-import java.util.Vector;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+import com.spartango.io.AsyncListenerList;
+import com.spartango.io.AsyncReadGate;
+import com.spartango.io.AsyncSerialExecutor;
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.metrics.AsyncMetricsRegistry;
 
 /**
  * Provides an asynchronous system for receiving data from a reader as it is
@@ -17,11 +28,19 @@ import java.util.Vector;
 public class AsyncLineReader implements Runnable {
 	private int sleepTime = 0; // ms
 
-	private List<AsyncLineReadListener> listeners;
+	private final AsyncListenerList<AsyncLineReadListener> listeners;
 	private BufferedReader input;
+	private InputStream byteInput;
+	private AsyncLineFramer framer;
+	private Charset charset;
 	private Thread runner;
+	private Executor dispatchExecutor;
+	private Executor dispatcher;
+	private AsyncLineReadEvent reusableEvent; // null -- allocate per line
+	private AsyncMetrics metrics;
+	private final AsyncReadGate gate;
 
-	private boolean running;
+	private volatile boolean running;
 
 	public AsyncLineReader(Reader reader) {
 		this(new BufferedReader(reader));
@@ -34,10 +53,64 @@ public class AsyncLineReader implements Runnable {
 	 * @param bufferedReader
 	 */
 	public AsyncLineReader(BufferedReader bufferedReader) {
+		this(bufferedReader, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Creates an asynchronous reader whose runner comes from the given
+	 * factory, such as AsyncThreads.virtualThreads(), but does not start
+	 * publishing events.
+	 * 
+	 * @param bufferedReader
+	 * @param threads
+	 */
+	public AsyncLineReader(BufferedReader bufferedReader,
+			ThreadFactory threads) {
 		running = false;
-		listeners = new Vector<AsyncLineReadListener>();
+		listeners = new AsyncListenerList<AsyncLineReadListener>(
+				AsyncLineReadListener.class);
 		input = bufferedReader;
-		runner = new Thread(this);
+		runner = threads.newThread(this);
+		metrics = AsyncMetricsRegistry.getDefault();
+		gate = new AsyncReadGate();
+	}
+
+	/**
+	 * Creates an asynchronous reader that frames lines directly from bytes,
+	 * decoding them only if a listener asks for the text. Lines end with \n,
+	 * \r or \r\n. Does not start publishing events.
+	 * 
+	 * @param in
+	 * @param charset
+	 *            an ASCII-compatible charset, such as UTF-8; read others
+	 *            through a BufferedReader
+	 * @param maxLineLength
+	 *            longest line accepted, in bytes, or 0 for no limit
+	 */
+	public AsyncLineReader(InputStream in, Charset charset, int maxLineLength) {
+		this(in, charset, maxLineLength, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Creates an asynchronous reader that frames lines directly from bytes,
+	 * with its runner from the given factory. Does not start publishing
+	 * events.
+	 * 
+	 * @param in
+	 * @param charset
+	 *            an ASCII-compatible charset, such as UTF-8
+	 * @param maxLineLength
+	 * @param threads
+	 * @throws IllegalArgumentException
+	 *             if the charset isn't ASCII-compatible, such as UTF-16
+	 */
+	public AsyncLineReader(InputStream in, Charset charset, int maxLineLength,
+			ThreadFactory threads) {
+		this((BufferedReader) null, threads);
+		AsyncLineFramer.checkCharset(charset);
+		byteInput = in;
+		this.charset = charset;
+		framer = new AsyncLineFramer(maxLineLength);
 	}
 
 	/**
@@ -49,7 +122,17 @@ public class AsyncLineReader implements Runnable {
 		}
 	}
 
-	private synchronized void executeReceive() {
+	/**
+	 * Reads and notifies listeners of the next line, or of every complete
+	 * line in the next block of bytes. Called repeatedly by the runner until
+	 * closed.
+	 */
+	protected void executeReceive() {
+		if (framer != null) {
+			executeByteReceive();
+			return;
+		}
+
 		try {
 			String data = input.readLine();
 			if (data != null)
@@ -59,28 +142,174 @@ public class AsyncLineReader implements Runnable {
 		}
 	}
 
-	private void notifyReadFailure(Exception e) {
-		// Create an immutable event
-		AsyncLineReadEvent event = new AsyncLineReadEvent(this,
-				AsyncLineReadEvent.FAILURE, null, e);
-		for (AsyncLineReadListener listener : listeners) {
-			listener.onReceiveFailed(event);
+	private void executeByteReceive() {
+		try {
+			int dataLength = framer.fill(byteInput);
+			if (dataLength < 0) {
+				notifyLastLine();
+				close();
+				return;
+			}
+			recordRead(dataLength);
+		} catch (IOException e) {
+			notifyReadFailure(e);
+			return;
 		}
+
+		notifyNewLines();
 	}
 
-	private void notifyNewData(String data) {
+	/**
+	 * Records the bytes taken by one read
+	 * 
+	 * @param dataLength
+	 */
+	protected void recordRead(int dataLength) {
+		if (dataLength > 0) {
+			metrics.onRead(dataLength);
+		}
+	}
+
+	/**
+	 * Notifies listeners of every complete line in the framer
+	 */
+	protected void notifyNewLines() {
+		while (true) {
+			try {
+				if (!framer.nextLine()) {
+					return;
+				}
+			} catch (IOException e) {
+				notifyReadFailure(e);
+				continue;
+			}
+			notifyNewLine();
+		}
+	}
+
+	/**
+	 * Notifies listeners of an unterminated line left at end of stream
+	 */
+	protected void notifyLastLine() {
+		if (framer.remainder()) {
+			notifyNewLine();
+		}
+	}
+
+	private void notifyNewLine() {
+		metrics.onMessageRead();
+		AsyncLineReadEvent event;
+		if (reusableEvent != null && dispatcher == null) {
+			reusableEvent.reset(framer.getArray(), framer.getLineStart(),
+					framer.getLineLength(), charset);
+			event = reusableEvent;
+		} else {
+			// The framer's buffer is reused, so an event that may outlive the
+			// callback needs its own copy of the line
+			int lineStart = framer.getLineStart();
+			byte[] line = Arrays.copyOfRange(framer.getArray(), lineStart,
+					lineStart + framer.getLineLength());
+			event = new AsyncLineReadEvent(this, AsyncLineReadEvent.SUCCESS,
+					line, 0, line.length, charset);
+		}
+		publish(event);
+	}
+
+	/**
+	 * Notifies listeners of a line held in a buffer that stays valid after
+	 * the callback, such as a file mapping, so that it is never copied, even
+	 * when dispatched
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @param charset
+	 */
+	protected void notifyNewLine(ByteBuffer buffer, int offset, int length,
+			Charset charset) {
+		metrics.onMessageRead();
+		if (reusableEvent != null && dispatcher == null) {
+			reusableEvent.reset(buffer, offset, length, charset);
+			deliver(reusableEvent);
+			return;
+		}
+
+		publish(new AsyncLineReadEvent(this, buffer, offset, length, charset));
+	}
+
+	protected void notifyReadFailure(Exception e) {
 		// Create an immutable event
-		AsyncLineReadEvent event = new AsyncLineReadEvent(this,
-				AsyncLineReadEvent.SUCCESS, data, null);
-		for (AsyncLineReadListener listener : listeners) {
-			listener.onDataReceived(event);
+		publish(new AsyncLineReadEvent(this, AsyncLineReadEvent.FAILURE, null,
+				e));
+	}
+
+	protected void notifyNewData(String data) {
+		metrics.onMessageRead();
+		if (reusableEvent != null && dispatcher == null) {
+			reusableEvent.reset(data);
+			deliver(reusableEvent);
+			return;
+		}
+
+		// Create an immutable event
+		publish(new AsyncLineReadEvent(this, AsyncLineReadEvent.SUCCESS, data,
+				null));
+	}
+
+	private void publish(final AsyncLineReadEvent event) {
+		if (dispatcher == null) {
+			deliver(event);
+			return;
+		}
+
+		acquirePending();
+		dispatcher.execute(new Runnable() {
+			public void run() {
+				try {
+					deliver(event);
+				} finally {
+					releasePending();
+				}
+			}
+		});
+	}
+
+	private void acquirePending() {
+		if (gate.acquire()) {
+			readingChanged();
+		}
+	}
+
+	private void releasePending() {
+		if (gate.release()) {
+			readingChanged();
 		}
 	}
 
+	private void deliver(AsyncLineReadEvent event) {
+		long start = System.nanoTime();
+		for (AsyncLineReadListener listener : listeners.getListeners()) {
+			if (event.getType() == AsyncLineReadEvent.SUCCESS) {
+				listener.onDataReceived(event);
+			} else {
+				listener.onReceiveFailed(event);
+			}
+		}
+		metrics.onListenerCallback(System.nanoTime() - start);
+	}
+
 	@Override
 	public void run() {
 		running = true;
 		while (running) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				close();
+			}
+			if (!running) {
+				break;
+			}
 			executeReceive();
 			pause();
 		}
@@ -100,7 +329,12 @@ public class AsyncLineReader implements Runnable {
 
 	private void cleanup() {
 		try {
-			input.close();
+			if (input != null) {
+				input.close();
+			}
+			if (byteInput != null) {
+				byteInput.close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -108,15 +342,15 @@ public class AsyncLineReader implements Runnable {
 		notifyInputClosed();
 	}
 
-	private void notifyInputClosed() {
-		for (AsyncLineReadListener listener : listeners) {
-			listener.onReceiveFailed(new AsyncLineReadEvent(this,
-					AsyncLineReadEvent.CLOSURE, null, null));
-		}
+	protected void notifyInputClosed() {
+		metrics.onConnectionClosed();
+		publish(new AsyncLineReadEvent(this, AsyncLineReadEvent.CLOSURE, null,
+				null));
 	}
 
 	public void close() {
 		running = false;
+		gate.close();
 	}
 
 	public void addAsyncLineReadListener(AsyncLineReadListener listener) {
@@ -127,6 +361,130 @@ public class AsyncLineReader implements Runnable {
 		listeners.remove(listener);
 	}
 
+	/**
+	 * The framer splitting bytes into lines, or null if this reader reads
+	 * text
+	 * 
+	 * @return
+	 */
+	protected AsyncLineFramer getFramer() {
+		return framer;
+	}
+
+	public boolean isReusingEvents() {
+		return reusableEvent != null;
+	}
+
+	/**
+	 * Notifies listeners of each line through one reused event rather than a
+	 * new event per line. A reused event is only valid during the callback;
+	 * listeners that keep it must keep a copy(). Events are still allocated
+	 * while a dispatch executor is set.
+	 * 
+	 * @param reuseEvents
+	 */
+	public void setReusingEvents(boolean reuseEvents) {
+		reusableEvent = reuseEvents ? new AsyncLineReadEvent(this,
+				AsyncLineReadEvent.SUCCESS, null, null) : null;
+	}
+
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	/**
+	 * Delivers events to listeners on the given executor rather than the
+	 * reading thread, so slow listeners never hold up reads. Lines from this
+	 * reader still arrive in order, one at a time, even on a shared pool.
+	 * 
+	 * @param executor
+	 *            the executor, or null to notify listeners inline
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		dispatchExecutor = executor;
+		dispatcher = executor != null ? new AsyncSerialExecutor(executor)
+				: null;
+	}
+
+	/**
+	 * Stops reading until resumed, leaving data with the source: a socket's
+	 * receive buffer fills, and TCP slows the remote sender. A read already
+	 * underway still completes. NONBLOCKING
+	 */
+	public void pauseReading() {
+		if (gate.pause()) {
+			readingChanged();
+		}
+	}
+
+	/**
+	 * Reads again after pauseReading(), unless too many events are pending.
+	 * NONBLOCKING
+	 */
+	public void resumeReading() {
+		if (gate.resume()) {
+			readingChanged();
+		}
+	}
+
+	/**
+	 * Whether reading is paused, by hand or by too many pending events
+	 * 
+	 * @return
+	 */
+	public boolean isReadingPaused() {
+		return !gate.isOpen();
+	}
+
+	/**
+	 * Called when reading is paused or resumed, on whichever thread did so,
+	 * for readers that must stop reading themselves rather than wait
+	 */
+	protected void readingChanged() {
+	}
+
+	/**
+	 * The events handed to the dispatch executor and not yet delivered
+	 * 
+	 * @return
+	 */
+	public int getPendingEvents() {
+		return gate.getPending();
+	}
+
+	public int getMaxPendingEvents() {
+		return gate.getMaxPending();
+	}
+
+	/**
+	 * Pauses reading while the given number of events wait on the dispatch
+	 * executor, until half of them have been delivered, so that slow
+	 * listeners hold up the sender rather than queueing lines without bound.
+	 * Listeners notified inline already hold up reading.
+	 * 
+	 * @param maxPendingEvents
+	 *            or 0 for no limit
+	 */
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		if (gate.setMaxPending(maxPendingEvents)) {
+			readingChanged();
+		}
+	}
+
+	public AsyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports this reader's reads and listener times to the given metrics
+	 * rather than the registry's default. Set before starting.
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		this.metrics = metrics;
+	}
+
 	public int getSleepTime() {
 		return sleepTime;
 	}
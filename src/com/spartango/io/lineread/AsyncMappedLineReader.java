@@ -0,0 +1,264 @@
+package com.spartango.io.lineread;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadFactory;
+
+import com.spartango.io.AsyncMappedFile;
+import com.spartango.io.AsyncThreads;
+
+/**
+ * An AsyncLineReader over a memory-mapped file, for replaying or tailing
+ * large local files at memory speed rather than stream speed. Lines (ending
+ * with \n or \r\n) are found by scanning the mapping a word at a time, and
+ * delivered as ranges of it, decoded only if a listener asks for the text,
+ * so the file must be in an ASCII-compatible charset such as UTF-8.
+ * Lines stay valid after the callback, unless the file is truncated.
+ *
+ * When following, the reader waits at the end of the file for it to grow,
+ * like tail -f, holding back an unterminated last line until it is finished,
+ * and starts again from the beginning if the file is truncated.
+ *
+ * @see AsyncMappedFile
+ * @author anand
+ *
+ */
+public class AsyncMappedLineReader extends AsyncLineReader {
+	private final AsyncMappedFile file;
+	private final Charset charset;
+	private final int maxLineLength;
+
+	private boolean following;
+	private int followInterval = 100; // ms
+
+	private long base; // file position of the window
+	private ByteBuffer window;
+	private int start; // start of the current line, in the window
+	private int scanned;
+	private boolean discarding;
+
+	/**
+	 * Opens a file to be read from the start, but does not start publishing
+	 * events. BLOCKING
+	 *
+	 * @param path
+	 * @param charset
+	 *            an ASCII-compatible charset, such as UTF-8
+	 * @param maxLineLength
+	 *            longest line accepted, in bytes, or 0 for no limit
+	 * @throws IOException
+	 */
+	public AsyncMappedLineReader(Path path, Charset charset, int maxLineLength)
+			throws IOException {
+		this(path, charset, maxLineLength, AsyncMappedFile.DEFAULT_WINDOW,
+				AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Opens a file to be read from the start, with the runner from the given
+	 * factory. Does not start publishing events. BLOCKING
+	 *
+	 * @param path
+	 * @param charset
+	 *            an ASCII-compatible charset, such as UTF-8
+	 * @param maxLineLength
+	 *            longest line accepted, in bytes, or 0 for no limit
+	 * @param windowSize
+	 *            most bytes mapped at once, which also bounds line length
+	 * @param threads
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if the charset isn't ASCII-compatible, such as UTF-16
+	 */
+	public AsyncMappedLineReader(Path path, Charset charset,
+			int maxLineLength, int windowSize, ThreadFactory threads)
+			throws IOException {
+		super((BufferedReader) null, threads);
+		AsyncLineFramer.checkCharset(charset);
+		file = new AsyncMappedFile(path, windowSize);
+		this.charset = charset;
+		this.maxLineLength = maxLineLength;
+		base = 0;
+		window = null;
+		start = scanned = 0;
+		discarding = false;
+	}
+
+	@Override
+	protected void executeReceive() {
+		try {
+			if (window == null) {
+				remap(base);
+			}
+			int limit = window.limit();
+			int from = scanned;
+			if (!notifyLines(limit)) {
+				// Paused, so carry on from the next line once resumed
+				recordRead(scanned - from);
+				return;
+			}
+			recordRead(limit - from);
+			scanned = limit;
+
+			if (discarding) {
+				start = limit;
+			} else if (maxLineLength > 0 && limit - start > maxLineLength) {
+				overflow(limit);
+			}
+			advance(limit);
+		} catch (IOException e) {
+			notifyReadFailure(e);
+			close();
+		}
+	}
+
+	/**
+	 * Notifies listeners of every complete line left in the window, unless
+	 * reading is paused
+	 *
+	 * @param limit
+	 * @return whether every line was delivered
+	 */
+	private boolean notifyLines(int limit) {
+		int newline;
+		while ((newline = AsyncLineFramer.indexOfNewline(window, scanned,
+				limit)) >= 0) {
+			int lineEnd = newline;
+			if (lineEnd > start && window.get(lineEnd - 1) == '\r') {
+				lineEnd--;
+			}
+			boolean skipped = discarding;
+			int lineStart = start;
+			start = scanned = newline + 1;
+			discarding = false;
+
+			if (skipped) {
+				continue;
+			}
+			if (maxLineLength > 0 && lineEnd - lineStart > maxLineLength) {
+				notifyReadFailure(new IOException(
+						"Line exceeds max length of " + maxLineLength));
+				continue;
+			}
+			notifyNewLine(window, lineStart, lineEnd - lineStart, charset);
+			if (isReadingPaused()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Moves the window past the lines already delivered, waits for a
+	 * followed file to grow, or finishes at the end of the file
+	 *
+	 * @param limit
+	 * @throws IOException
+	 */
+	private void advance(int limit) throws IOException {
+		long size = file.size();
+		if (size < base + start) {
+			// Truncated, as by log rotation
+			discarding = false;
+			window = null;
+			remap(0);
+		} else if (base + limit < size) {
+			if (start == 0 && limit == file.getWindowSize()) {
+				// The line fills the window, so can never be delivered
+				overflow(limit);
+			}
+			remap(base + start);
+		} else if (!following) {
+			if (!discarding && start < limit) {
+				notifyNewLine(window, start, limit - start, charset);
+			}
+			close();
+		} else {
+			try {
+				Thread.sleep(followInterval);
+			} catch (InterruptedException e) {
+				close();
+			}
+		}
+	}
+
+	private void overflow(int limit) {
+		discarding = true;
+		start = limit;
+		notifyReadFailure(new IOException("Line exceeds max length of "
+				+ (maxLineLength > 0 ? maxLineLength : file.getWindowSize())));
+	}
+
+	/**
+	 * Maps a window from the given position, which keeps the part of the
+	 * window already scanned
+	 *
+	 * @param position
+	 * @throws IOException
+	 */
+	private void remap(long position) throws IOException {
+		int scannedAhead = window != null && position >= base ? Math.max(
+				scanned - (int) (position - base), 0) : 0;
+		base = position;
+		window = file.map(position);
+		start = 0;
+		scanned = scannedAhead;
+	}
+
+	@Override
+	public void run() {
+		try {
+			super.run();
+		} finally {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public boolean isFollowing() {
+		return following;
+	}
+
+	/**
+	 * Waits at the end of the file for more to be appended, rather than
+	 * closing
+	 *
+	 * @param following
+	 */
+	public void setFollowing(boolean following) {
+		this.following = following;
+	}
+
+	public int getFollowInterval() {
+		return followInterval;
+	}
+
+	/**
+	 * How often to check whether a followed file has grown
+	 *
+	 * @param followInterval
+	 *            ms
+	 */
+	public void setFollowInterval(int followInterval) {
+		this.followInterval = followInterval;
+	}
+
+	/**
+	 * Sets where to start reading, which should be the start of a line, such
+	 * as the file's size to read only what is appended. Set before starting.
+	 *
+	 * @param position
+	 */
+	public void setPosition(long position) {
+		base = position;
+		window = null;
+		start = scanned = 0;
+	}
+
+}
@@ -0,0 +1,217 @@
+package com.spartango.io.loop;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Binds a nonblocking channel to an AsyncEventLoop, dispatching readiness for
+ * each interest operation (read, write, accept, connect) to its own handler.
+ * Interest may be changed from any thread; changes made off the loop thread
+ * are applied by the loop.
+ *
+ * @see AsyncEventLoop
+ * @author anand
+ *
+ */
+public class AsyncChannel {
+	private static final int[] OPERATIONS = { SelectionKey.OP_READ,
+			SelectionKey.OP_WRITE, SelectionKey.OP_ACCEPT,
+			SelectionKey.OP_CONNECT };
+
+	private final SelectableChannel channel;
+	private final AsyncEventLoop loop;
+
+	private final AsyncChannelHandler[] handlers;
+	private SelectionKey key;
+
+	private int interestOps;
+	private final AtomicBoolean registered;
+	private volatile boolean open;
+
+	/**
+	 * Wraps a channel for use with the given loop, switching it to
+	 * nonblocking mode. The channel is not registered until register() is
+	 * called.
+	 *
+	 * @param source
+	 * @param loop
+	 * @throws IOException
+	 */
+	public AsyncChannel(SelectableChannel source, AsyncEventLoop loop)
+			throws IOException {
+		channel = source;
+		this.loop = loop;
+		handlers = new AsyncChannelHandler[OPERATIONS.length];
+		interestOps = 0;
+		registered = new AtomicBoolean(false);
+		open = true;
+
+		channel.configureBlocking(false);
+	}
+
+	/**
+	 * Sets the handler to be notified when the channel is ready for the given
+	 * operation
+	 *
+	 * @param operation
+	 * @param handler
+	 */
+	public void setHandler(int operation, AsyncChannelHandler handler) {
+		handlers[indexOf(operation)] = handler;
+	}
+
+	/**
+	 * Registers this channel with its loop, unless it already has been.
+	 * NONBLOCKING
+	 */
+	public void register() {
+		if (!registered.compareAndSet(false, true)) {
+			return;
+		}
+		loop.execute(new Runnable() {
+			public void run() {
+				doRegister();
+			}
+		});
+	}
+
+	private void doRegister() {
+		if (!open) {
+			return;
+		}
+
+		try {
+			key = channel.register(loop.getSelector(), interestOps, this);
+		} catch (ClosedChannelException e) {
+			doClose();
+		}
+	}
+
+	/**
+	 * Expresses interest in an operation. NONBLOCKING
+	 *
+	 * @param operation
+	 */
+	public void enable(int operation) {
+		setInterest(operation, true);
+	}
+
+	/**
+	 * Withdraws interest in an operation. NONBLOCKING
+	 *
+	 * @param operation
+	 */
+	public void disable(int operation) {
+		setInterest(operation, false);
+	}
+
+	private void setInterest(final int operation, final boolean enabled) {
+		if (loop.inLoop()) {
+			applyInterest(operation, enabled);
+		} else {
+			loop.execute(new Runnable() {
+				public void run() {
+					applyInterest(operation, enabled);
+				}
+			});
+		}
+	}
+
+	private void applyInterest(int operation, boolean enabled) {
+		interestOps = enabled ? interestOps | operation : interestOps
+				& ~operation;
+		if (key != null && key.isValid()) {
+			key.interestOps(interestOps);
+		}
+	}
+
+	/**
+	 * Dispatches the ready operations on a selected key to their handlers.
+	 * Called by the loop.
+	 *
+	 * @param selected
+	 */
+	void process(SelectionKey selected) {
+		int ready = selected.readyOps();
+		for (int i = 0; i < OPERATIONS.length && selected.isValid(); i++) {
+			if ((ready & OPERATIONS[i]) != 0 && handlers[i] != null) {
+				handlers[i].onReady(this);
+			}
+		}
+	}
+
+	/**
+	 * Closes the channel, notifying each handler on the loop thread.
+	 * NONBLOCKING
+	 */
+	public void close() {
+		if (loop.inLoop()) {
+			doClose();
+		} else {
+			loop.execute(new Runnable() {
+				public void run() {
+					doClose();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Closes the channel immediately. Must be called from the loop thread.
+	 */
+	void doClose() {
+		if (!open) {
+			return;
+		}
+		open = false;
+
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i] != null && !isDuplicate(i)) {
+				handlers[i].onClosed(this);
+			}
+		}
+	}
+
+	private boolean isDuplicate(int index) {
+		for (int i = 0; i < index; i++) {
+			if (handlers[i] == handlers[index]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int indexOf(int operation) {
+		for (int i = 0; i < OPERATIONS.length; i++) {
+			if (OPERATIONS[i] == operation) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown operation: " + operation);
+	}
+
+	public boolean isOpen() {
+		return open;
+	}
+
+	public SelectableChannel getChannel() {
+		return channel;
+	}
+
+	public AsyncEventLoop getLoop() {
+		return loop;
+	}
+
+}
@@ -0,0 +1,17 @@
+package com.spartango.io.loop;
+
+/**
+ * Receives readiness notifications for a channel registered with an
+ * AsyncEventLoop. All callbacks are made on the loop's thread, and must not
+ * block.
+ *
+ * @see AsyncChannel
+ * @author anand
+ *
+ */
+public interface AsyncChannelHandler {
+
+	public void onReady(AsyncChannel channel);
+
+	public void onClosed(AsyncChannel channel);
+}
@@ -0,0 +1,162 @@
+package com.spartango.io.loop;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A single thread driving a Selector, on which many AsyncChannels can be
+ * multiplexed. Readiness events are dispatched to channel handlers, and tasks
+ * submitted from other threads are run between selections.
+ *
+ * @see AsyncEventLoopGroup
+ * @author anand
+ *
+ */
+public class AsyncEventLoop implements Runnable {
+	private Selector selector;
+	private Queue<Runnable> tasks;
+	private AtomicBoolean wakeupPending;
+	private Thread runner;
+
+	private volatile boolean running;
+
+	/**
+	 * Creates a loop with its own selector, but does not start it.
+	 *
+	 * @throws IOException
+	 */
+	public AsyncEventLoop() throws IOException {
+		running = false;
+		selector = Selector.open();
+		tasks = new ConcurrentLinkedQueue<Runnable>();
+		wakeupPending = new AtomicBoolean(false);
+		runner = new Thread(this);
+	}
+
+	/**
+	 * Starts selecting and dispatching events
+	 */
+	public void start() {
+		if (!running) {
+			running = true;
+			runner.start();
+		}
+	}
+
+	/**
+	 * Queues a task to be run on the loop thread. NONBLOCKING
+	 *
+	 * @param task
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		if (!inLoop() && wakeupPending.compareAndSet(false, true)) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Checks whether the caller is running on this loop's thread
+	 *
+	 * @return
+	 */
+	public boolean inLoop() {
+		return Thread.currentThread() == runner;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				// Tasks queued from the loop itself never wake the selector
+				if (tasks.isEmpty()) {
+					selector.select();
+				} else {
+					selector.selectNow();
+				}
+				wakeupPending.set(false);
+				runTasks();
+				processSelectedKeys();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		cleanup();
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				// A failed task must not stop every channel on the loop
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+		while (selected.hasNext()) {
+			SelectionKey key = selected.next();
+			selected.remove();
+
+			AsyncChannel channel = (AsyncChannel) key.attachment();
+			try {
+				channel.process(key);
+			} catch (CancelledKeyException e) {
+				closeChannel(channel);
+			} catch (RuntimeException e) {
+				// Only the channel whose handler failed is closed
+				e.printStackTrace();
+				closeChannel(channel);
+			}
+		}
+	}
+
+	private void closeChannel(AsyncChannel channel) {
+		try {
+			channel.doClose();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void cleanup() {
+		runTasks();
+		for (SelectionKey key : selector.keys()) {
+			closeChannel((AsyncChannel) key.attachment());
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stops the loop, closing every channel registered with it
+	 */
+	public void close() {
+		running = false;
+		selector.wakeup();
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	Selector getSelector() {
+		return selector;
+	}
+
+}
@@ -0,0 +1,90 @@
+package com.spartango.io.loop;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed pool of AsyncEventLoops, handing out loops round-robin so that many
+ * channels can share a small number of threads.
+ *
+ * @see AsyncEventLoop
+ * @author anand
+ *
+ */
+public class AsyncEventLoopGroup {
+	private final AsyncEventLoop[] loops;
+	private final AtomicInteger nextLoop;
+
+	private boolean running;
+
+	/**
+	 * Creates a group with one loop per available processor, and starts it.
+	 *
+	 * @throws IOException
+	 */
+	public AsyncEventLoopGroup() throws IOException {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a group with the given number of loops, and starts it.
+	 *
+	 * @param size
+	 * @throws IOException
+	 */
+	public AsyncEventLoopGroup(int size) throws IOException {
+		if (size < 1) {
+			throw new IllegalArgumentException("Group size must be positive");
+		}
+
+		loops = new AsyncEventLoop[size];
+		for (int i = 0; i < size; i++) {
+			loops[i] = new AsyncEventLoop();
+		}
+		nextLoop = new AtomicInteger(0);
+		running = false;
+
+		start();
+	}
+
+	/**
+	 * Starts every loop in the group
+	 */
+	private void start() {
+		running = true;
+		for (AsyncEventLoop loop : loops) {
+			loop.start();
+		}
+	}
+
+	/**
+	 * Picks the loop that the next channel should be bound to
+	 *
+	 * @return
+	 */
+	public AsyncEventLoop next() {
+		int index = nextLoop.getAndIncrement() & Integer.MAX_VALUE;
+		return loops[index % loops.length];
+	}
+
+	/**
+	 * Stops every loop, closing all channels registered with the group
+	 */
+	public void close() {
+		if (running) {
+			for (AsyncEventLoop loop : loops) {
+				loop.close();
+			}
+			running = false;
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	public int size() {
+		return loops.length;
+	}
+
+}
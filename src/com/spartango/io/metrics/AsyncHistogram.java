@@ -0,0 +1,128 @@
+package com.spartango.io.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, bucketed in the style of
+ * HdrHistogram: each power of two is split into 32 linear buckets, so any
+ * value is reported to within about 3% while the whole range of longs fits
+ * in a fixed array. Recording is a few atomic increments; reads walk the
+ * buckets and may miss values recorded meanwhile.
+ *
+ * @author anand
+ *
+ */
+public class AsyncHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder sum;
+	private final AtomicLong max;
+
+	public AsyncHistogram() {
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		sum = new LongAdder();
+		max = new AtomicLong(0);
+	}
+
+	/**
+	 * Records a value, clamping negative values to 0
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(indexOf(value));
+		count.increment();
+		sum.add(value);
+
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	private static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) - SUB_BUCKETS;
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * The largest value that falls in a bucket
+	 */
+	private static long highestIn(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		long lowest = (SUB_BUCKETS + sub) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getMean() {
+		long n = count.sum();
+		return n > 0 ? (double) sum.sum() / n : 0;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * The value below which the given percentage of recorded values fall
+	 *
+	 * @param percentile
+	 *            0 to 100
+	 * @return the value, or 0 if nothing has been recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(Math.min(percentile, 100) / 100 * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(rank, 1)) {
+				return Math.min(highestIn(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Forgets every recorded value. Values recorded during a reset may be
+	 * partly kept.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.spartango.io.metrics;
+
+/**
+ * Receives measurements from sockets, readers and writers. Implementations
+ * are called on IO threads and event loops for every read and write, so must
+ * be cheap and thread safe.
+ *
+ * Providers may be plugged in through java.util.ServiceLoader, or set with
+ * AsyncMetricsRegistry.setDefault().
+ *
+ * @see AsyncMetricsRecorder
+ * @see AsyncMetricsRegistry
+ * @author anand
+ *
+ */
+public interface AsyncMetrics {
+	/**
+	 * Bytes were read from a source, by one read
+	 *
+	 * @param bytes
+	 */
+	public void onRead(int bytes);
+
+	/**
+	 * A message (a read, line or frame) was delivered to listeners
+	 */
+	public void onMessageRead();
+
+	/**
+	 * A write request entered a writer's queue
+	 *
+	 * @param bytes
+	 */
+	public void onQueued(int bytes);
+
+	/**
+	 * A write request left a writer's queue, whether written, failed or
+	 * dropped
+	 *
+	 * @param bytes
+	 */
+	public void onDequeued(int bytes);
+
+	/**
+	 * A write request was written
+	 *
+	 * @param bytes
+	 * @param latency
+	 *            ns from being queued to being written
+	 */
+	public void onWritten(long bytes, long latency);
+
+	/**
+	 * A writer flushed, or made one write to its channel
+	 */
+	public void onFlush();
+
+	/**
+	 * Listeners were notified of an event
+	 *
+	 * @param time
+	 *            ns spent in the listeners
+	 */
+	public void onListenerCallback(long time);
+
+	public void onConnectionAccepted();
+
+	/**
+	 * A reader's input closed, ending its connection
+	 */
+	public void onConnectionClosed();
+
+	/**
+	 * A connection could not be accepted or made
+	 */
+	public void onConnectionFailed();
+
+}
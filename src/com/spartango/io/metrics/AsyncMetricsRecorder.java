@@ -0,0 +1,265 @@
+package com.spartango.io.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Records metrics in striped counters and lock-free histograms, so that it
+ * can stay on without slowing the IO it measures. Readable directly, or over
+ * JMX once registered.
+ *
+ * @see AsyncMetricsRecorderMBean
+ * @author anand
+ *
+ */
+public class AsyncMetricsRecorder implements AsyncMetrics,
+		AsyncMetricsRecorderMBean {
+	private static final String DOMAIN = "com.spartango";
+
+	private final LongAdder bytesRead;
+	private final LongAdder messagesRead;
+	private final LongAdder bytesWritten;
+	private final LongAdder messagesWritten;
+	private final LongAdder queuedRequests;
+	private final LongAdder queuedBytes;
+	private final LongAdder flushes;
+	private final LongAdder accepted;
+	private final LongAdder closed;
+	private final LongAdder failed;
+
+	private final AsyncHistogram readSizes; // bytes
+	private final AsyncHistogram writeLatencies; // ns
+	private final AsyncHistogram listenerTimes; // ns
+
+	public AsyncMetricsRecorder() {
+		bytesRead = new LongAdder();
+		messagesRead = new LongAdder();
+		bytesWritten = new LongAdder();
+		messagesWritten = new LongAdder();
+		queuedRequests = new LongAdder();
+		queuedBytes = new LongAdder();
+		flushes = new LongAdder();
+		accepted = new LongAdder();
+		closed = new LongAdder();
+		failed = new LongAdder();
+
+		readSizes = new AsyncHistogram();
+		writeLatencies = new AsyncHistogram();
+		listenerTimes = new AsyncHistogram();
+	}
+
+	/**
+	 * Registers this recorder with the platform MBean server, as
+	 * com.spartango:type=AsyncMetrics,name=<name>
+	 *
+	 * @param name
+	 * @throws JMException
+	 *             if the name is taken or invalid
+	 */
+	public void register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, objectName(name));
+	}
+
+	/**
+	 * Removes this recorder from the platform MBean server
+	 *
+	 * @param name
+	 * @throws JMException
+	 */
+	public void unregister(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.unregisterMBean(objectName(name));
+	}
+
+	private static ObjectName objectName(String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=AsyncMetrics,name="
+				+ ObjectName.quote(name));
+	}
+
+	@Override
+	public void onRead(int bytes) {
+		bytesRead.add(bytes);
+		readSizes.record(bytes);
+	}
+
+	@Override
+	public void onMessageRead() {
+		messagesRead.increment();
+	}
+
+	@Override
+	public void onQueued(int bytes) {
+		queuedRequests.increment();
+		queuedBytes.add(bytes);
+	}
+
+	@Override
+	public void onDequeued(int bytes) {
+		queuedRequests.decrement();
+		queuedBytes.add(-bytes);
+	}
+
+	@Override
+	public void onWritten(long bytes, long latency) {
+		bytesWritten.add(bytes);
+		messagesWritten.increment();
+		writeLatencies.record(latency);
+	}
+
+	@Override
+	public void onFlush() {
+		flushes.increment();
+	}
+
+	@Override
+	public void onListenerCallback(long time) {
+		listenerTimes.record(time);
+	}
+
+	@Override
+	public void onConnectionAccepted() {
+		accepted.increment();
+	}
+
+	@Override
+	public void onConnectionClosed() {
+		closed.increment();
+	}
+
+	@Override
+	public void onConnectionFailed() {
+		failed.increment();
+	}
+
+	public long getBytesRead() {
+		return bytesRead.sum();
+	}
+
+	public long getMessagesRead() {
+		return messagesRead.sum();
+	}
+
+	public long getBytesWritten() {
+		return bytesWritten.sum();
+	}
+
+	public long getMessagesWritten() {
+		return messagesWritten.sum();
+	}
+
+	public long getQueuedRequests() {
+		return queuedRequests.sum();
+	}
+
+	public long getQueuedBytes() {
+		return queuedBytes.sum();
+	}
+
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	public long getConnectionsAccepted() {
+		return accepted.sum();
+	}
+
+	public long getConnectionsClosed() {
+		return closed.sum();
+	}
+
+	public long getConnectionsFailed() {
+		return failed.sum();
+	}
+
+	public double getReadSizeMean() {
+		return readSizes.getMean();
+	}
+
+	public long getReadSize99thPercentile() {
+		return readSizes.getValueAtPercentile(99);
+	}
+
+	public long getReadSizeMax() {
+		return readSizes.getMax();
+	}
+
+	public double getWriteLatencyMean() {
+		return writeLatencies.getMean() / 1000;
+	}
+
+	public long getWriteLatency50thPercentile() {
+		return micros(writeLatencies.getValueAtPercentile(50));
+	}
+
+	public long getWriteLatency99thPercentile() {
+		return micros(writeLatencies.getValueAtPercentile(99));
+	}
+
+	public long getWriteLatencyMax() {
+		return micros(writeLatencies.getMax());
+	}
+
+	public double getListenerTimeMean() {
+		return listenerTimes.getMean() / 1000;
+	}
+
+	public long getListenerTime99thPercentile() {
+		return micros(listenerTimes.getValueAtPercentile(99));
+	}
+
+	public long getListenerTimeMax() {
+		return micros(listenerTimes.getMax());
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+
+	/**
+	 * The sizes of reads, in bytes
+	 *
+	 * @return
+	 */
+	public AsyncHistogram getReadSizes() {
+		return readSizes;
+	}
+
+	/**
+	 * The time from queueing each write to writing it, in ns
+	 *
+	 * @return
+	 */
+	public AsyncHistogram getWriteLatencies() {
+		return writeLatencies;
+	}
+
+	/**
+	 * The time spent notifying listeners of each event, in ns
+	 *
+	 * @return
+	 */
+	public AsyncHistogram getListenerTimes() {
+		return listenerTimes;
+	}
+
+	public void reset() {
+		bytesRead.reset();
+		messagesRead.reset();
+		bytesWritten.reset();
+		messagesWritten.reset();
+		flushes.reset();
+		accepted.reset();
+		closed.reset();
+		failed.reset();
+		readSizes.reset();
+		writeLatencies.reset();
+		listenerTimes.reset();
+	}
+
+}
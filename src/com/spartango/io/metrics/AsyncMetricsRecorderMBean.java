@@ -0,0 +1,57 @@
+package com.spartango.io.metrics;
+
+/**
+ * The JMX view of an AsyncMetricsRecorder. Latencies and callback times are
+ * in microseconds, sizes in bytes.
+ *
+ * @see AsyncMetricsRecorder
+ * @author anand
+ *
+ */
+public interface AsyncMetricsRecorderMBean {
+	public long getBytesRead();
+
+	public long getMessagesRead();
+
+	public long getBytesWritten();
+
+	public long getMessagesWritten();
+
+	public long getQueuedRequests();
+
+	public long getQueuedBytes();
+
+	public long getFlushes();
+
+	public long getConnectionsAccepted();
+
+	public long getConnectionsClosed();
+
+	public long getConnectionsFailed();
+
+	public double getReadSizeMean();
+
+	public long getReadSize99thPercentile();
+
+	public long getReadSizeMax();
+
+	public double getWriteLatencyMean();
+
+	public long getWriteLatency50thPercentile();
+
+	public long getWriteLatency99thPercentile();
+
+	public long getWriteLatencyMax();
+
+	public double getListenerTimeMean();
+
+	public long getListenerTime99thPercentile();
+
+	public long getListenerTimeMax();
+
+	/**
+	 * Zeroes the counters and histograms, leaving the queue gauges
+	 */
+	public void reset();
+
+}
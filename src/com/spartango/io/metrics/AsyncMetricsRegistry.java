@@ -0,0 +1,64 @@
+package com.spartango.io.metrics;
+
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import javax.management.JMException;
+
+/**
+ * Holds the metrics that new sockets, readers and writers report to. The
+ * default is the first AsyncMetrics provider found through ServiceLoader, or
+ * failing that a shared AsyncMetricsRecorder, registered over JMX as
+ * com.spartango:type=AsyncMetrics,name="shared".
+ *
+ * @see AsyncMetrics
+ * @author anand
+ *
+ */
+public class AsyncMetricsRegistry {
+	private static AsyncMetrics defaultMetrics;
+
+	private AsyncMetricsRegistry() {
+	}
+
+	/**
+	 * The metrics that new components report to, unless given their own
+	 *
+	 * @return
+	 */
+	public static synchronized AsyncMetrics getDefault() {
+		if (defaultMetrics == null) {
+			defaultMetrics = load();
+		}
+		return defaultMetrics;
+	}
+
+	/**
+	 * Replaces the default, for components created from now on
+	 *
+	 * @param metrics
+	 */
+	public static synchronized void setDefault(AsyncMetrics metrics) {
+		if (metrics == null) {
+			throw new NullPointerException("metrics");
+		}
+		defaultMetrics = metrics;
+	}
+
+	private static AsyncMetrics load() {
+		Iterator<AsyncMetrics> providers = ServiceLoader.load(
+				AsyncMetrics.class).iterator();
+		if (providers.hasNext()) {
+			return providers.next();
+		}
+
+		AsyncMetricsRecorder recorder = new AsyncMetricsRecorder();
+		try {
+			recorder.register("shared");
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+		return recorder;
+	}
+
+}
@@ -0,0 +1,297 @@
+package com.spartango.io.write;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncChannelHandler;
+
+/**
+ * An AsyncOutputWriter driven by an AsyncEventLoop rather than a dedicated
+ * thread. Queued requests are written whenever the channel is writable, and
+ * write interest is only held while requests are pending. When batching,
+ * everything queued (up to the max batch size) is written in one gathering
+ * write; the linger time does not apply, as the loop never waits. Files are
+ * sent with FileChannel.transferTo straight into the socket, one request at
+ * a time, resuming whenever the socket's buffer has room.
+ *
+ * @see AsyncChannel
+ * @author anand
+ *
+ */
+public class AsyncChannelWriter extends AsyncOutputWriter implements
+		AsyncChannelHandler {
+	private final AsyncChannel channel;
+	private final Queue<AsyncWriteRequest> pendingQueue;
+	private final AtomicBoolean flushScheduled;
+	private AsyncWriteRequest deferred; // taken, but left for the next batch
+
+	// Requests being written, and the buffers for all of their chunks
+	private final List<AsyncWriteRequest> inFlight;
+	private int[] inFlightEnds;
+	private ByteBuffer[] inFlightBuffers;
+	private int inFlightBufferCount;
+	private int inFlightHead;
+	private int inFlightBufferHead;
+
+	/**
+	 * Creates a writer bound to the given channel. Requests may be queued
+	 * immediately, and are written once the channel is registered.
+	 *
+	 * @param channel
+	 */
+	public AsyncChannelWriter(AsyncChannel channel) {
+		super((OutputStream) null);
+		this.channel = channel;
+		pendingQueue = new ConcurrentLinkedQueue<AsyncWriteRequest>();
+		flushScheduled = new AtomicBoolean(false);
+		deferred = null;
+		inFlight = new ArrayList<AsyncWriteRequest>();
+		inFlightEnds = new int[0];
+		inFlightBuffers = new ByteBuffer[0];
+		inFlightBufferCount = 0;
+		inFlightHead = 0;
+		inFlightBufferHead = 0;
+
+		channel.setHandler(SelectionKey.OP_WRITE, this);
+	}
+
+	/**
+	 * Writes are driven by the channel's loop, so there is nothing to start
+	 */
+	@Override
+	public void start() {
+	}
+
+	@Override
+	protected void enqueue(AsyncWriteRequest request) {
+		if (!channel.isOpen()) {
+			release(request);
+			request.notifySendUnavailable();
+			return;
+		}
+
+		pendingQueue.add(request);
+		if (!channel.isOpen() && pendingQueue.remove(request)) {
+			// Closed while queueing, so the loop will never drain this
+			release(request);
+			request.notifySendUnavailable();
+			return;
+		}
+		if (flushScheduled.compareAndSet(false, true)) {
+			channel.enable(SelectionKey.OP_WRITE);
+		}
+	}
+
+	@Override
+	protected AsyncWriteRequest dequeueOldest() {
+		return pendingQueue.poll();
+	}
+
+	/**
+	 * Senders on the loop thread must never wait for the loop to drain
+	 */
+	@Override
+	protected boolean canBlock() {
+		return !channel.getLoop().inLoop();
+	}
+
+	@Override
+	public void onReady(AsyncChannel source) {
+		GatheringByteChannel output = (GatheringByteChannel) channel
+				.getChannel();
+		while (true) {
+			if (inFlight.isEmpty() && !fillInFlight()) {
+				// Only drop interest if nothing was queued in the meantime
+				flushScheduled.set(false);
+				if (pendingQueue.isEmpty()
+						|| !flushScheduled.compareAndSet(false, true)) {
+					channel.disable(SelectionKey.OP_WRITE);
+					return;
+				}
+				continue;
+			}
+
+			try {
+				if (inFlightBufferHead < inFlightBufferCount) {
+					output.write(inFlightBuffers, inFlightBufferHead,
+							inFlightBufferCount - inFlightBufferHead);
+					getMetrics().onFlush();
+				}
+
+				while (inFlightBufferHead < inFlightBufferCount
+						&& !inFlightBuffers[inFlightBufferHead]
+								.hasRemaining()) {
+					inFlightBuffers[inFlightBufferHead] = null;
+					inFlightBufferHead++;
+				}
+				while (inFlightHead < inFlight.size()
+						&& inFlightEnds[inFlightHead] <= inFlightBufferHead) {
+					AsyncWriteRequest request = inFlight.get(inFlightHead);
+					if (request instanceof AsyncFileWriteRequest) {
+						long remaining = transferFile(
+								(AsyncFileWriteRequest) request, output);
+						if (remaining > 0) {
+							break;
+						} else if (remaining < 0) {
+							inFlightHead++;
+							continue;
+						}
+					}
+					release(request);
+					notifySendSuccess(request);
+					inFlightHead++;
+				}
+			} catch (IOException e) {
+				// Part of a request may have gone out, so the stream is lost
+				failInFlight(e);
+				channel.close();
+				return;
+			}
+
+			if (inFlightHead < inFlight.size()) {
+				// Socket buffer is full, wait for the next writable event
+				return;
+			}
+			clearInFlight();
+		}
+	}
+
+	/**
+	 * Transfers what the socket takes of a file request. If the file can't be
+	 * opened or read before any of the request has gone out, that request
+	 * alone is failed, and the connection carries on.
+	 *
+	 * @return the bytes still to be transferred, or -1 if the request failed
+	 * @throws IOException
+	 *             if the request failed part way through
+	 */
+	private long transferFile(AsyncFileWriteRequest request,
+			GatheringByteChannel output) throws IOException {
+		try {
+			return request.transfer(output);
+		} catch (IOException e) {
+			if (request.getTransferLength() > 0) {
+				throw e;
+			}
+			release(request);
+			request.notifySendFailure(e);
+			return -1;
+		}
+	}
+
+	/**
+	 * Moves queued requests into the in-flight set: one at a time, or as many
+	 * as fit in a batch when batching. A file request is always alone. A
+	 * request taken that doesn't fit is held for the next batch, as senders
+	 * dropping the oldest may poll the queue at the same time.
+	 * 
+	 * @return whether any requests were taken
+	 */
+	private boolean fillInFlight() {
+		int length = 0;
+		int bufferCount = 0;
+		AsyncWriteRequest request;
+		while ((request = takeNext()) != null) {
+			boolean file = request instanceof AsyncFileWriteRequest;
+			int size = request.getLength();
+			if (!inFlight.isEmpty() && (file || !isBatching()
+					|| length + size > getMaxBatchBytes())) {
+				deferred = request;
+				break;
+			}
+			inFlight.add(request);
+			length += size;
+			bufferCount += request.getBufferCount();
+			if (file) {
+				break;
+			}
+		}
+
+		if (inFlightEnds.length < inFlight.size()) {
+			inFlightEnds = new int[inFlight.size()];
+		}
+		if (inFlightBuffers.length < bufferCount) {
+			inFlightBuffers = new ByteBuffer[bufferCount];
+		}
+		for (int i = 0; i < inFlight.size(); i++) {
+			request = inFlight.get(i);
+			for (int j = 0; j < request.getBufferCount(); j++) {
+				inFlightBuffers[inFlightBufferCount++] = request.getBuffer(j);
+			}
+			inFlightEnds[i] = inFlightBufferCount;
+		}
+		return !inFlight.isEmpty();
+	}
+
+	private AsyncWriteRequest takeNext() {
+		AsyncWriteRequest request = deferred;
+		if (request == null) {
+			return pendingQueue.poll();
+		}
+		deferred = null;
+		return request;
+	}
+
+	private void clearInFlight() {
+		for (int i = inFlightBufferHead; i < inFlightBufferCount; i++) {
+			inFlightBuffers[i] = null;
+		}
+		inFlight.clear();
+		inFlightHead = 0;
+		inFlightBufferHead = 0;
+		inFlightBufferCount = 0;
+	}
+
+	private void failInFlight(Exception e) {
+		for (int i = inFlightHead; i < inFlight.size(); i++) {
+			AsyncWriteRequest request = inFlight.get(i);
+			release(request);
+			request.notifySendFailure(e);
+		}
+		clearInFlight();
+	}
+
+	@Override
+	public void onClosed(AsyncChannel source) {
+		// Stop accepting sends, and wake any that are blocked on a full queue
+		super.close();
+
+		for (int i = inFlightHead; i < inFlight.size(); i++) {
+			AsyncWriteRequest request = inFlight.get(i);
+			release(request);
+			request.notifySendUnavailable();
+		}
+		clearInFlight();
+
+		AsyncWriteRequest request = deferred;
+		deferred = null;
+		if (request != null) {
+			release(request);
+			request.notifySendUnavailable();
+		}
+		while ((request = pendingQueue.poll()) != null) {
+			release(request);
+			request.notifySendUnavailable();
+		}
+	}
+
+	@Override
+	public void close() {
+		channel.close();
+	}
+
+	@Override
+	public boolean isRunning() {
+		return channel.isOpen();
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.spartango.io.write;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A request to write part of a file with FileChannel.transferTo, so that when
+ * the writer is driven by a socket channel the data goes from the file to the
+ * socket through the kernel, without passing through the heap. Any chunks,
+ * such as a frame's prefix, are written before the file as part of the same
+ * request. Only the chunks count against a writer's queued byte bound.
+ *
+ * A file given as a path is opened when the transfer starts and closed once
+ * the request finishes; a file given as a channel is left open.
+ *
+ * @see AsyncOutputWriter#sendFile(Path, long, long, AsyncWriteSender)
+ * @author anand
+ *
+ */
+public class AsyncFileWriteRequest extends AsyncWriteRequest {
+	private final Path path; // null if given an open channel
+	private FileChannel file;
+	private long position;
+	private long remaining; // -1 until the file is opened
+	private long transferred;
+
+	/**
+	 * @param parent
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 */
+	public AsyncFileWriteRequest(AsyncWriteSender parent, FileChannel file,
+			long position, long count) {
+		this(parent, new byte[0][], file, position, count);
+	}
+
+	/**
+	 * @param parent
+	 * @param chunks
+	 *            written before the file
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 */
+	public AsyncFileWriteRequest(AsyncWriteSender parent, byte[][] chunks,
+			FileChannel file, long position, long count) {
+		super(parent, chunks);
+		this.path = null;
+		this.file = file;
+		this.position = position;
+		remaining = count;
+		transferred = 0;
+	}
+
+	/**
+	 * @param parent
+	 * @param path
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 */
+	public AsyncFileWriteRequest(AsyncWriteSender parent, Path path,
+			long position, long count) {
+		this(parent, new byte[0][], path, position, count);
+	}
+
+	/**
+	 * @param parent
+	 * @param chunks
+	 *            written before the file
+	 * @param path
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 */
+	public AsyncFileWriteRequest(AsyncWriteSender parent, byte[][] chunks,
+			Path path, long position, long count) {
+		super(parent, chunks);
+		this.path = path;
+		this.position = position;
+		remaining = count;
+		transferred = 0;
+	}
+
+	/**
+	 * Transfers as much of the file as the target takes. A blocking target
+	 * takes everything, one call at a time.
+	 *
+	 * @param target
+	 * @return the bytes still to be transferred
+	 * @throws IOException
+	 *             if the file can't be read, or ends early
+	 */
+	long transfer(WritableByteChannel target) throws IOException {
+		if (file == null) {
+			file = FileChannel.open(path, StandardOpenOption.READ);
+		}
+		if (remaining < 0) {
+			remaining = Math.max(file.size() - position, 0);
+		}
+
+		while (remaining > 0) {
+			long sent = file.transferTo(position, remaining, target);
+			if (sent == 0) {
+				if (position >= file.size()) {
+					throw new EOFException("File ended " + remaining
+							+ " bytes early");
+				}
+				// The target is full
+				break;
+			}
+			position += sent;
+			remaining -= sent;
+			transferred += sent;
+		}
+		return remaining;
+	}
+
+	/**
+	 * The chunks' length plus the file bytes transferred so far
+	 */
+	@Override
+	public long getTransferLength() {
+		return getLength() + transferred;
+	}
+
+	private void closeFile() {
+		if (path != null && file != null) {
+			try {
+				file.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	@Override
+	public void notifySendSuccess() {
+		closeFile();
+		super.notifySendSuccess();
+	}
+
+	@Override
+	void notifySendSuccess(AsyncWriteEvent event) {
+		closeFile();
+		super.notifySendSuccess(event);
+	}
+
+	@Override
+	public void notifySendFailure(Exception e) {
+		closeFile();
+		super.notifySendFailure(e);
+	}
+
+	@Override
+	public void notifySendUnavailable() {
+		closeFile();
+		super.notifySendUnavailable();
+	}
+
+}
@@ -2,8 +2,28 @@ package com.spartango.io.write;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.buffer.AsyncBufferPool;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.metrics.AsyncMetricsRegistry;
 
 /**
  * Provides a means to perform non-blocking IO on a printWriter, with events to
@@ -13,13 +33,40 @@ import java.util.Queue;
  * 
  */
 public class AsyncOutputWriter implements Runnable {
-	private int sleepTime = 10; // ms
+	// Queued by close() to wake the writer thread
+	private static final AsyncWriteRequest CLOSE = new AsyncWriteRequest(null,
+			new byte[0]);
+
+	private int sleepTime = 0; // ms -- unused, writes wake on enqueue
+
+	private boolean batching = false;
+	private int maxBatchBytes = 64 * 1024;
+	private int maxLingerTime = 0; // ms -- wait for a batch to fill
+	private byte[] coalesceBuffer;
+
+	private int maxQueuedRequests = 0; // 0 -- unbounded
+	private long maxQueuedBytes = 0; // 0 -- unbounded
+	private AsyncWritePolicy queuePolicy = AsyncWritePolicy.BLOCK;
+	private AsyncWritabilityListener writabilityListener;
+
+	private Charset charset = Charset.defaultCharset();
+	private AsyncBufferPool bufferPool; // null -- encode strings to arrays
+	private AsyncWriteEvent reusableEvent; // null -- allocate per write
+	private AsyncMetrics metrics;
 
-	private Queue<AsyncWriteRequest> sendQueue;
+	private BlockingQueue<AsyncWriteRequest> sendQueue;
 	private OutputStream output;
+	private WritableByteChannel outputChannel; // over output, for files
 	private Thread runner;
 
-	private boolean running;
+	private final AtomicInteger queuedRequests;
+	private final AtomicLong queuedBytes;
+	private final ReentrantLock capacityLock;
+	private final Condition capacityAvailable;
+	private volatile boolean writable;
+
+	private volatile boolean running;
+	private final AtomicBoolean closed;
 
 	/**
 	 * Creates an asynchronous writer bound to the specified printwriter Note
@@ -28,10 +75,30 @@ public class AsyncOutputWriter implements Runnable {
 	 * @param outputStream
 	 */
 	public AsyncOutputWriter(OutputStream out) {
+		this(out, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Creates an asynchronous writer whose runner comes from the given
+	 * factory, such as AsyncThreads.virtualThreads(). Does not start
+	 * automatically.
+	 * 
+	 * @param out
+	 * @param threads
+	 */
+	public AsyncOutputWriter(OutputStream out, ThreadFactory threads) {
 		running = false;
-		sendQueue = new LinkedList<AsyncWriteRequest>();
+		sendQueue = new LinkedBlockingQueue<AsyncWriteRequest>();
 		output = out;
-		runner = new Thread(this);
+		runner = threads.newThread(this);
+
+		queuedRequests = new AtomicInteger(0);
+		queuedBytes = new AtomicLong(0);
+		capacityLock = new ReentrantLock();
+		capacityAvailable = capacityLock.newCondition();
+		writable = true;
+		closed = new AtomicBoolean(false);
+		metrics = AsyncMetricsRegistry.getDefault();
 	}
 
 	/**
@@ -42,26 +109,225 @@ public class AsyncOutputWriter implements Runnable {
 			runner.start();
 	}
 
-	private synchronized void executeSend() {
-		if (!sendQueue.isEmpty()) {
-			AsyncWriteRequest request = sendQueue.remove();
+	private void executeSend(List<AsyncWriteRequest> batch) {
+		if (batching) {
+			executeBatch(batch);
+			return;
+		}
+
+		for (AsyncWriteRequest request : batch) {
 			try {
-				output.write(request.getData());
+				writeRequest(request);
 				output.flush();
-				request.notifySendSuccess();
+				metrics.onFlush();
+				notifySendSuccess(request);
 			} catch (Exception e) {
 				request.notifySendFailure(e);
 			}
 		}
 	}
 
+	/**
+	 * Splits the drained requests into runs of at most maxBatchBytes, each of
+	 * which is written and flushed at once. A file request is a run of its
+	 * own.
+	 * 
+	 * @param batch
+	 */
+	private void executeBatch(List<AsyncWriteRequest> batch) {
+		int start = 0;
+		while (start < batch.size()) {
+			int end = start;
+			int length = 0;
+			while (end < batch.size()) {
+				AsyncWriteRequest request = batch.get(end);
+				boolean file = request instanceof AsyncFileWriteRequest;
+				int size = request.getLength();
+				if (end > start && (file || length + size > maxBatchBytes)) {
+					break;
+				}
+				length += size;
+				end++;
+				if (file) {
+					break;
+				}
+			}
+
+			writeSegment(batch.subList(start, end), length);
+			start = end;
+		}
+	}
+
+	private void writeSegment(List<AsyncWriteRequest> segment, int length) {
+		try {
+			if (segment.size() == 1) {
+				writeRequest(segment.get(0));
+			} else {
+				// Coalesce into one write, so the segment goes out together
+				int offset = 0;
+				for (AsyncWriteRequest request : segment) {
+					offset = coalesce(request, offset);
+				}
+				output.write(coalesceBuffer, 0, length);
+			}
+			output.flush();
+			metrics.onFlush();
+		} catch (Exception e) {
+			for (AsyncWriteRequest request : segment) {
+				request.notifySendFailure(e);
+			}
+			return;
+		}
+
+		for (AsyncWriteRequest request : segment) {
+			notifySendSuccess(request);
+		}
+	}
+
+	/**
+	 * Notifies a request's parent of success, reusing this writer's event if
+	 * enabled
+	 * 
+	 * @param request
+	 */
+	protected void notifySendSuccess(AsyncWriteRequest request) {
+		metrics.onWritten(request.getTransferLength(), System.nanoTime()
+				- request.queuedAt);
+		if (reusableEvent != null) {
+			request.notifySendSuccess(reusableEvent);
+		} else {
+			request.notifySendSuccess();
+		}
+	}
+
+	private void writeRequest(AsyncWriteRequest request) throws IOException {
+		writeChunks(request);
+		if (request instanceof AsyncFileWriteRequest) {
+			// Streams can't take a transfer from the kernel, so this copies
+			// through a buffer; channel writers send the file directly
+			if (outputChannel == null) {
+				outputChannel = Channels.newChannel(output);
+			}
+			((AsyncFileWriteRequest) request).transfer(outputChannel);
+		}
+	}
+
+	private void writeChunks(AsyncWriteRequest request) throws IOException {
+		ByteBuffer[] buffers = request.getBuffers();
+		boolean single = request.getBufferCount() == 1
+				&& (buffers == null || buffers[0].hasArray());
+		if (!single && request.getLength() <= maxBatchBytes) {
+			// One write, so that Nagle's algorithm doesn't hold back the
+			// later chunks (such as a frame's payload after its prefix)
+			int length = coalesce(request, 0);
+			output.write(coalesceBuffer, 0, length);
+			return;
+		}
+
+		if (buffers == null) {
+			for (byte[] chunk : request.getChunks()) {
+				output.write(chunk);
+			}
+			return;
+		}
+		for (ByteBuffer buffer : buffers) {
+			writeBuffer(buffer);
+		}
+	}
+
+	/**
+	 * Writes a buffer's remaining bytes, copying a direct buffer through the
+	 * coalescing buffer as streams only take arrays
+	 * 
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private void writeBuffer(ByteBuffer buffer) throws IOException {
+		if (buffer.hasArray()) {
+			output.write(buffer.array(),
+					buffer.arrayOffset() + buffer.position(),
+					buffer.remaining());
+			return;
+		}
+
+		ensureCoalesceBuffer();
+		ByteBuffer source = buffer.duplicate();
+		while (source.hasRemaining()) {
+			int length = Math.min(source.remaining(), coalesceBuffer.length);
+			source.get(coalesceBuffer, 0, length);
+			output.write(coalesceBuffer, 0, length);
+		}
+	}
+
+	/**
+	 * Copies a request's chunks or buffers into the coalescing buffer
+	 * 
+	 * @param request
+	 * @param offset
+	 *            where to copy to, at most maxBatchBytes - request length
+	 * @return the offset after the request
+	 */
+	private int coalesce(AsyncWriteRequest request, int offset) {
+		ensureCoalesceBuffer();
+		ByteBuffer[] buffers = request.getBuffers();
+		if (buffers != null) {
+			for (ByteBuffer buffer : buffers) {
+				int length = buffer.remaining();
+				buffer.duplicate().get(coalesceBuffer, offset, length);
+				offset += length;
+			}
+			return offset;
+		}
+
+		for (byte[] chunk : request.getChunks()) {
+			System.arraycopy(chunk, 0, coalesceBuffer, offset, chunk.length);
+			offset += chunk.length;
+		}
+		return offset;
+	}
+
+	private void ensureCoalesceBuffer() {
+		if (coalesceBuffer == null || coalesceBuffer.length < maxBatchBytes) {
+			coalesceBuffer = new byte[maxBatchBytes];
+		}
+	}
+
+	/**
+	 * Waits up to maxLingerTime for more requests, so that small sends can be
+	 * written together
+	 * 
+	 * @param batch
+	 * @throws InterruptedException
+	 */
+	private void linger(List<AsyncWriteRequest> batch)
+			throws InterruptedException {
+		long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(maxLingerTime);
+		int length = 0;
+		for (AsyncWriteRequest request : batch) {
+			length += request.getLength();
+		}
+
+		while (running && length < maxBatchBytes) {
+			long remaining = deadline - System.nanoTime();
+			AsyncWriteRequest next = sendQueue.poll(remaining,
+					TimeUnit.NANOSECONDS);
+			if (next == null || next == CLOSE) {
+				break;
+			}
+			batch.add(next);
+			length += next.getLength();
+		}
+		sendQueue.drainTo(batch);
+	}
+
 	/**
 	 * Sends a string to the host, without a parent to be notified. NONBLOCKING
 	 * 
 	 * @param data
 	 */
 	public void send(String data) {
-		send(new AsyncWriteRequest(null, data));
+		send(encode(data, null));
 	}
 	
 	/**
@@ -81,7 +347,7 @@ public class AsyncOutputWriter implements Runnable {
 	 * @param parent
 	 */
 	public void send(String data, AsyncWriteSender parent) {
-		send(new AsyncWriteRequest(parent, data));
+		send(encode(data, parent));
 	}
 
 	/**
@@ -96,33 +362,408 @@ public class AsyncOutputWriter implements Runnable {
 	}
 
 	/**
-	 * Adds a request to be sent NONBLOCKING
+	 * Sends a string to the host. NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(String data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(encode(data, future));
+		return future;
+	}
+
+	/**
+	 * Sends some data to the host. NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(byte[] data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(new AsyncWriteRequest(future, data));
+		return future;
+	}
+
+	/**
+	 * Sends a buffer's remaining bytes to the host, without copying them on
+	 * a channel writer. The buffer must not be changed until the send
+	 * finishes. NONBLOCKING
+	 * 
+	 * @param data
+	 * @param parent
+	 */
+	public void send(ByteBuffer data, AsyncWriteSender parent) {
+		send(new AsyncWriteRequest(parent, data));
+	}
+
+	/**
+	 * Sends the remaining bytes of several buffers to the host, in order and
+	 * as one write. NONBLOCKING
+	 * 
+	 * @param data
+	 * @param parent
+	 */
+	public void send(ByteBuffer[] data, AsyncWriteSender parent) {
+		send(new AsyncWriteRequest(parent, data));
+	}
+
+	/**
+	 * Sends a buffer's remaining bytes to the host. NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(ByteBuffer data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(data, future);
+		return future;
+	}
+
+	/**
+	 * Sends the remaining bytes of several buffers to the host. NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(ByteBuffer[] data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(data, future);
+		return future;
+	}
+
+	/**
+	 * Encodes a string with this writer's charset, into a pooled buffer if a
+	 * pool is set
+	 * 
+	 * @param data
+	 * @param parent
+	 * @return
+	 */
+	private AsyncWriteRequest encode(String data, AsyncWriteSender parent) {
+		return bufferPool != null ? new AsyncWriteRequest(parent, data,
+				charset, bufferPool) : new AsyncWriteRequest(parent, data,
+				charset);
+	}
+
+	/**
+	 * Sends part of a file to the host, in order with other sends. The file
+	 * is left open. NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 * @param parent
+	 */
+	public void sendFile(FileChannel file, long position, long count,
+			AsyncWriteSender parent) {
+		send(new AsyncFileWriteRequest(parent, file, position, count));
+	}
+
+	/**
+	 * Sends part of a file to the host, in order with other sends. The file
+	 * is opened when its turn comes, and closed after. NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 * @param parent
+	 */
+	public void sendFile(Path file, long position, long count,
+			AsyncWriteSender parent) {
+		send(new AsyncFileWriteRequest(parent, file, position, count));
+	}
+
+	/**
+	 * Sends part of a file to the host. The file is left open. NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 * @return a future completed once the file has been written
+	 */
+	public AsyncWriteFuture sendFileAsync(FileChannel file, long position,
+			long count) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		sendFile(file, position, count, future);
+		return future;
+	}
+
+	/**
+	 * Sends part of a file to the host. NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file
+	 * @return a future completed once the file has been written
+	 */
+	public AsyncWriteFuture sendFileAsync(Path file, long position,
+			long count) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		sendFile(file, position, count, future);
+		return future;
+	}
+
+	/**
+	 * Queues a marker behind everything sent so far. Writes go out in order,
+	 * so a pipeline of fire-and-forget sends can be awaited with one future.
+	 * NONBLOCKING
+	 * 
+	 * @return a future completed once every earlier send has finished
+	 */
+	public AsyncWriteFuture flushAsync() {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(new AsyncWriteRequest(future, new byte[0]));
+		return future;
+	}
+
+	/**
+	 * Adds a request to be sent. NONBLOCKING unless the queue is bounded,
+	 * full, and using the BLOCK policy
+	 * 
+	 * @param request
+	 */
+	public void send(AsyncWriteRequest request) {
+		if (closed.get()) {
+			request.notifySendUnavailable();
+			return;
+		}
+		if (reserve(request)) {
+			enqueue(request);
+		}
+	}
+
+	/**
+	 * Places an admitted request on the queue to be written
 	 * 
 	 * @param request
 	 */
-	public synchronized void send(AsyncWriteRequest request) {
+	protected void enqueue(AsyncWriteRequest request) {
 		sendQueue.add(request);
+		if (closed.get() && sendQueue.remove(request)) {
+			// Closed while queueing, so the runner may already have drained
+			release(request);
+			request.notifySendUnavailable();
+		}
 	}
 
-	public void run() {
+	/**
+	 * Removes the oldest queued request, so that it can be dropped
+	 * 
+	 * @return the request, or null if nothing is queued or the writer has
+	 *         been closed
+	 */
+	protected AsyncWriteRequest dequeueOldest() {
+		AsyncWriteRequest oldest;
+		while ((oldest = sendQueue.peek()) != null) {
+			if (oldest == CLOSE) {
+				// Closed, so leave it in place for the runner
+				return null;
+			}
+			if (sendQueue.remove(oldest)) {
+				return oldest;
+			}
+		}
+		return null;
+	}
 
-		running = true;
-		while (running) {
-			executeSend();
-			pause();
+	/**
+	 * Whether the calling thread may wait for queue space
+	 * 
+	 * @return
+	 */
+	protected boolean canBlock() {
+		return Thread.currentThread() != runner;
+	}
+
+	/**
+	 * Accounts for a request entering the queue, applying the queue policy if
+	 * the queue is full
+	 * 
+	 * @param request
+	 * @return whether the request should be queued
+	 */
+	private boolean reserve(AsyncWriteRequest request) {
+		int size = request.getLength();
+		if (!isBounded()) {
+			account(request);
+			return true;
 		}
 
-		cleanup();
+		List<AsyncWriteRequest> dropped = null;
+		boolean admitted = true;
+		boolean filled = false;
+		Exception failure = null;
+
+		capacityLock.lock();
+		try {
+			while (admitted && isFull(size)) {
+				if (closed.get()) {
+					admitted = false;
+				} else if (queuePolicy == AsyncWritePolicy.BLOCK
+						&& canBlock()) {
+					try {
+						capacityAvailable.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						failure = e;
+						admitted = false;
+					}
+				} else if (queuePolicy == AsyncWritePolicy.FAIL) {
+					failure = new IOException("Send queue full");
+					admitted = false;
+				} else if (queuePolicy == AsyncWritePolicy.DROP_OLDEST) {
+					AsyncWriteRequest oldest = dequeueOldest();
+					if (oldest == null) {
+						// Nothing to drop, or closed since checking
+						admitted = !closed.get();
+						break;
+					}
+					unaccount(oldest);
+					if (dropped == null) {
+						dropped = new ArrayList<AsyncWriteRequest>();
+					}
+					dropped.add(oldest);
+				} else {
+					break;
+				}
+			}
+
+			if (admitted) {
+				account(request);
+				filled = writable && isAtBounds();
+				if (filled) {
+					writable = false;
+				}
+			}
+		} finally {
+			capacityLock.unlock();
+		}
+
+		// Notify outside the lock, so parents may send again
+		if (dropped != null) {
+			Exception e = new IOException("Dropped from full send queue");
+			for (AsyncWriteRequest oldest : dropped) {
+				oldest.notifySendFailure(e);
+			}
+		}
+		if (filled) {
+			notifyWritabilityChanged(false);
+		}
+		if (!admitted) {
+			if (failure != null) {
+				request.notifySendFailure(failure);
+			} else {
+				request.notifySendUnavailable();
+			}
+		}
+		return admitted;
+	}
+
+	/**
+	 * Accounts for a request leaving the queue, waking blocked senders and
+	 * restoring writability once the queue has drained below half its bounds
+	 * 
+	 * @param request
+	 */
+	protected void release(AsyncWriteRequest request) {
+		unaccount(request);
+		if (!isBounded()) {
+			return;
+		}
+
+		boolean drained = false;
+		capacityLock.lock();
+		try {
+			capacityAvailable.signalAll();
+			drained = !writable && isBelowLowWater();
+			if (drained) {
+				writable = true;
+			}
+		} finally {
+			capacityLock.unlock();
+		}
+
+		if (drained) {
+			notifyWritabilityChanged(true);
+		}
+	}
+
+	private void account(AsyncWriteRequest request) {
+		queuedRequests.incrementAndGet();
+		queuedBytes.addAndGet(request.getLength());
+		request.queuedAt = System.nanoTime();
+		metrics.onQueued(request.getLength());
+	}
+
+	private void unaccount(AsyncWriteRequest request) {
+		queuedRequests.decrementAndGet();
+		queuedBytes.addAndGet(-request.getLength());
+		metrics.onDequeued(request.getLength());
+	}
+
+	private boolean isBounded() {
+		return maxQueuedRequests > 0 || maxQueuedBytes > 0;
+	}
+
+	private boolean isFull(int incoming) {
+		int requests = queuedRequests.get();
+		long bytes = queuedBytes.get();
+		return (maxQueuedRequests > 0 && requests >= maxQueuedRequests)
+				|| (maxQueuedBytes > 0 && requests > 0
+						&& bytes + incoming > maxQueuedBytes);
+	}
+
+	private boolean isAtBounds() {
+		return (maxQueuedRequests > 0
+				&& queuedRequests.get() >= maxQueuedRequests)
+				|| (maxQueuedBytes > 0 && queuedBytes.get() >= maxQueuedBytes);
+	}
+
+	private boolean isBelowLowWater() {
+		return (maxQueuedRequests <= 0
+				|| queuedRequests.get() <= maxQueuedRequests / 2)
+				&& (maxQueuedBytes <= 0
+						|| queuedBytes.get() <= maxQueuedBytes / 2);
 	}
 
-	private void pause() {
-		if (sleepTime > 0) {
+	private void notifyWritabilityChanged(boolean nowWritable) {
+		AsyncWritabilityListener listener = writabilityListener;
+		if (listener != null) {
+			listener.onWritabilityChanged(this, nowWritable);
+		}
+	}
+
+	public void run() {
+		List<AsyncWriteRequest> batch = new ArrayList<AsyncWriteRequest>();
+
+		running = true;
+		while (running) {
+			// Park until a request arrives, then drain the whole backlog
 			try {
-				Thread.sleep(sleepTime);
+				batch.add(sendQueue.take());
+				sendQueue.drainTo(batch);
+				if (batching && maxLingerTime > 0) {
+					linger(batch);
+				}
 			} catch (InterruptedException e) {
 				close();
+				break;
+			}
+			batch.remove(CLOSE);
+
+			executeSend(batch);
+			for (AsyncWriteRequest request : batch) {
+				release(request);
 			}
+			batch.clear();
 		}
+
+		cleanup();
 	}
 
 	private void cleanup() {
@@ -131,8 +772,10 @@ public class AsyncOutputWriter implements Runnable {
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		if (!sendQueue.isEmpty()) {
-			for (AsyncWriteRequest req : sendQueue) {
+		AsyncWriteRequest req;
+		while ((req = sendQueue.poll()) != null) {
+			if (req != CLOSE) {
+				release(req);
 				req.notifySendUnavailable();
 			}
 		}
@@ -140,16 +783,201 @@ public class AsyncOutputWriter implements Runnable {
 
 	public void close() {
 		running = false;
+		if (closed.compareAndSet(false, true)) {
+			sendQueue.offer(CLOSE);
+		}
+
+		// Wake any senders blocked on a full queue
+		capacityLock.lock();
+		try {
+			capacityAvailable.signalAll();
+		} finally {
+			capacityLock.unlock();
+		}
 	}
 
 	public boolean isRunning() {
 		return running;
 	}
 
+	public boolean isBatching() {
+		return batching;
+	}
+
+	/**
+	 * Enables writing all queued requests together with a single flush,
+	 * rather than flushing after each request
+	 * 
+	 * @param batching
+	 */
+	public void setBatching(boolean batching) {
+		this.batching = batching;
+	}
+
+	public int getMaxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	public void setMaxBatchBytes(int maxBatchBytes) {
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	public int getMaxLingerTime() {
+		return maxLingerTime;
+	}
+
+	/**
+	 * Sets how long (ms) a batch may wait for more requests before being
+	 * written. Only applies when batching.
+	 * 
+	 * @param maxLingerTime
+	 */
+	public void setMaxLingerTime(int maxLingerTime) {
+		this.maxLingerTime = maxLingerTime;
+	}
+
+	public boolean isReusingEvents() {
+		return reusableEvent != null;
+	}
+
+	/**
+	 * Notifies every successful write through one reused event rather than a
+	 * new event per write. A reused event is only valid during the callback;
+	 * parents that keep it must keep a copy(). Set before starting.
+	 * 
+	 * @param reuseEvents
+	 */
+	public void setReusingEvents(boolean reuseEvents) {
+		reusableEvent = reuseEvents ? new AsyncWriteEvent(null,
+				AsyncWriteEvent.SUCCESS, null) : null;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Sets the charset strings are sent in, which defaults to the platform's.
+	 * Set before sending.
+	 * 
+	 * @param charset
+	 */
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public AsyncBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Encodes strings into buffers leased from the given pool rather than
+	 * new arrays, returning them once written. A direct pool suits channel
+	 * writers; stream writers copy direct buffers out. Set before sending.
+	 * 
+	 * @param bufferPool
+	 *            the pool, or null to stop pooling
+	 */
+	public void setBufferPool(AsyncBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	public AsyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports this writer's queueing, writes and flushes to the given
+	 * metrics rather than the registry's default. Set before starting.
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public int getQueuedRequests() {
+		return queuedRequests.get();
+	}
+
+	public long getQueuedBytes() {
+		return queuedBytes.get();
+	}
+
+	/**
+	 * Whether the queue is below its bounds. Once full, a writer only becomes
+	 * writable again after draining to half of its bounds.
+	 * 
+	 * @return
+	 */
+	public boolean isWritable() {
+		return writable;
+	}
+
+	public int getMaxQueuedRequests() {
+		return maxQueuedRequests;
+	}
+
+	/**
+	 * Bounds the number of queued requests, or 0 for no bound
+	 * 
+	 * @param maxQueuedRequests
+	 */
+	public void setMaxQueuedRequests(int maxQueuedRequests) {
+		this.maxQueuedRequests = maxQueuedRequests;
+	}
+
+	public long getMaxQueuedBytes() {
+		return maxQueuedBytes;
+	}
+
+	/**
+	 * Bounds the number of queued bytes, or 0 for no bound. A single request
+	 * larger than the bound is still accepted into an empty queue.
+	 * 
+	 * @param maxQueuedBytes
+	 */
+	public void setMaxQueuedBytes(long maxQueuedBytes) {
+		this.maxQueuedBytes = maxQueuedBytes;
+	}
+
+	public AsyncWritePolicy getQueuePolicy() {
+		return queuePolicy;
+	}
+
+	/**
+	 * Sets what happens to sends while the queue is full
+	 * 
+	 * @param queuePolicy
+	 */
+	public void setQueuePolicy(AsyncWritePolicy queuePolicy) {
+		this.queuePolicy = queuePolicy;
+	}
+
+	public AsyncWritabilityListener getWritabilityListener() {
+		return writabilityListener;
+	}
+
+	public void setWritabilityListener(AsyncWritabilityListener listener) {
+		this.writabilityListener = listener;
+	}
+
+	/**
+	 * @deprecated the writer now wakes as soon as a request is queued, so
+	 *             there is no polling interval
+	 * @return
+	 */
+	@Deprecated
 	public int getSleepTime() {
 		return sleepTime;
 	}
 
+	/**
+	 * @deprecated the writer now wakes as soon as a request is queued, so
+	 *             there is no polling interval
+	 * @param sleepTime
+	 */
+	@Deprecated
 	public void setSleepTime(int sleepTime) {
 		this.sleepTime = sleepTime;
 	}
@@ -0,0 +1,14 @@
+package com.spartango.io.write;
+
+/**
+ * Notified when a bounded AsyncOutputWriter fills up (becomes unwritable) and
+ * when it drains back below half of its bounds (becomes writable again)
+ * 
+ * @author anand
+ * 
+ */
+public interface AsyncWritabilityListener {
+
+	public void onWritabilityChanged(AsyncOutputWriter source,
+			boolean writable);
+}
@@ -4,13 +4,28 @@ import com.spartango.io.AsyncIOEvent;
 
 public class AsyncWriteEvent extends AsyncIOEvent {
 
-	private final AsyncWriteRequest request;
+	private AsyncWriteRequest request;
 
 	public AsyncWriteEvent(AsyncWriteRequest request, int type, Exception e) {
 		super(type, e);
 		this.request = request;
 	}
 
+	void reset(AsyncWriteRequest request, int type, Exception e) {
+		reset(type, e);
+		this.request = request;
+	}
+
+	/**
+	 * An independent copy of this event, for listeners that keep events
+	 * from a writer that reuses them
+	 * 
+	 * @return
+	 */
+	public AsyncWriteEvent copy() {
+		return new AsyncWriteEvent(request, type, error);
+	}
+
 	public AsyncWriteRequest getRequest() {
 		return request;
 	}
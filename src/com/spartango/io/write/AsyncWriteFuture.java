@@ -0,0 +1,34 @@
+package com.spartango.io.write;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A future completed when a write request finishes. The future is the
+ * request's parent, so a send costs the future and nothing more: it completes
+ * normally once the data has been written, exceptionally with the write's
+ * error if it failed, or with a ClosedChannelException if the writer closed
+ * before the data was written.
+ *
+ * @author anand
+ *
+ */
+public class AsyncWriteFuture extends CompletableFuture<Void> implements
+		AsyncWriteSender {
+
+	@Override
+	public void onWriteSuccess(AsyncWriteEvent e) {
+		complete(null);
+	}
+
+	@Override
+	public void onWriteFailure(AsyncWriteEvent e) {
+		completeExceptionally(e.getError());
+	}
+
+	@Override
+	public void onWriterClosed(AsyncWriteEvent e) {
+		completeExceptionally(new ClosedChannelException());
+	}
+
+}
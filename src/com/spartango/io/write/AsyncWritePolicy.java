@@ -0,0 +1,20 @@
+package com.spartango.io.write;
+
+/**
+ * What an AsyncOutputWriter does with a send when its queue is full
+ * 
+ * @see AsyncOutputWriter#setMaxQueuedRequests(int)
+ * @see AsyncOutputWriter#setMaxQueuedBytes(long)
+ * @author anand
+ * 
+ */
+public enum AsyncWritePolicy {
+	/** Block the sending thread until there is room */
+	BLOCK,
+	/** Reject the new request, notifying its parent of failure */
+	FAIL,
+	/** Discard the oldest queued requests, failing them to their parents */
+	DROP_OLDEST,
+	/** Accept the request anyway, leaving writability listeners to throttle */
+	NOTIFY
+}
@@ -1,18 +1,39 @@
 package com.spartango.io.write;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
 import com.spartango.io.AsyncIOEvent;
+import com.spartango.io.buffer.AsyncBufferLease;
+import com.spartango.io.buffer.AsyncBufferPool;
 
 /**
+ * Data to be written, held either as byte arrays or as ByteBuffers (heap or
+ * direct), which are written without being copied into an array first. A
+ * buffer's remaining bytes are written, without moving its position; it must
+ * not be changed until the request finishes.
  * 
  * @author anand
  * 
  */
 public class AsyncWriteRequest {
+	// Encoders aren't thread safe, so each sending thread keeps its own
+	private static final ThreadLocal<CharsetEncoder> ENCODER =
+			new ThreadLocal<CharsetEncoder>();
 
 	private final AsyncWriteSender parent;
-	private final byte[] data;
+	private final byte[][] chunks; // null if held in buffers
+	private final ByteBuffer[] buffers; // null if held in chunks
+	private final AsyncBufferLease lease; // released once finished
+	private final int length;
+	long queuedAt; // ns, set by the writer as the request is queued
 
 	/**
+	 * Creates a request for a string, encoded with the platform charset
+	 * 
 	 * @param parent
 	 * @param data
 	 */
@@ -20,31 +41,259 @@ public class AsyncWriteRequest {
 		this(parent, data.getBytes());
 	}
 
+	/**
+	 * @param parent
+	 * @param data
+	 * @param charset
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, String data,
+			Charset charset) {
+		this(parent, data.getBytes(charset));
+	}
+
+	/**
+	 * Creates a request for a string, encoded into a buffer leased from the
+	 * pool rather than a new array. The buffer returns to the pool once the
+	 * request finishes.
+	 * 
+	 * @param parent
+	 * @param data
+	 * @param charset
+	 * @param pool
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, String data,
+			Charset charset, AsyncBufferPool pool) {
+		this(parent, encode(data, charset, pool));
+	}
+
 	public AsyncWriteRequest(AsyncWriteSender parent, byte[] data) {
-		this.data = data;
+		this(parent, new byte[][] { data });
+	}
+
+	/**
+	 * Creates a request whose data is written as the given chunks, in order
+	 * and as part of the same write, without joining them first
+	 * 
+	 * @param parent
+	 * @param chunks
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, byte[][] chunks) {
+		this.chunks = chunks;
 		this.parent = parent;
+		buffers = null;
+		lease = null;
+
+		int total = 0;
+		for (byte[] chunk : chunks) {
+			total += chunk.length;
+		}
+		length = total;
+	}
+
+	/**
+	 * Creates a request for a buffer's remaining bytes
+	 * 
+	 * @param parent
+	 * @param data
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, ByteBuffer data) {
+		this(parent, new ByteBuffer[] { data }, null);
+	}
+
+	/**
+	 * Creates a request whose data is the remaining bytes of the given
+	 * buffers, in order and as part of the same write, such as a header and a
+	 * slice of a payload
+	 * 
+	 * @param parent
+	 * @param buffers
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, ByteBuffer[] buffers) {
+		this(parent, buffers, null);
+	}
+
+	/**
+	 * Creates a request for a leased buffer's remaining bytes, releasing the
+	 * lease once the request finishes
+	 * 
+	 * @param parent
+	 * @param lease
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, AsyncBufferLease lease) {
+		this(parent, new ByteBuffer[] { lease.getBuffer() }, lease);
+	}
+
+	/**
+	 * Creates a request for the given buffers, releasing the lease (which
+	 * may hold any of them) once the request finishes
+	 * 
+	 * @param parent
+	 * @param buffers
+	 * @param lease
+	 *            or null
+	 */
+	public AsyncWriteRequest(AsyncWriteSender parent, ByteBuffer[] buffers,
+			AsyncBufferLease lease) {
+		this.parent = parent;
+		chunks = null;
+		this.buffers = buffers;
+		this.lease = lease;
+
+		int total = 0;
+		for (ByteBuffer buffer : buffers) {
+			total += buffer.remaining();
+		}
+		length = total;
+	}
+
+	private static AsyncBufferLease encode(String data, Charset charset,
+			AsyncBufferPool pool) {
+		CharsetEncoder encoder = ENCODER.get();
+		if (encoder == null || !encoder.charset().equals(charset)) {
+			// Replace bad input, as String.getBytes() does
+			encoder = charset.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			ENCODER.set(encoder);
+		}
+
+		AsyncBufferLease lease = pool.acquire((int) Math.ceil(data.length()
+				* (double) encoder.maxBytesPerChar()));
+		ByteBuffer target = lease.getBuffer();
+		encoder.reset();
+		encoder.encode(CharBuffer.wrap(data), target, true);
+		encoder.flush(target);
+		target.flip();
+		return lease;
 	}
 
 	public AsyncWriteSender getParent() {
 		return parent;
 	}
 
+	/**
+	 * The data to be written. For a request made of several chunks, or held
+	 * in buffers, this joins them into a new array.
+	 * 
+	 * @return
+	 */
 	public byte[] getData() {
+		if (chunks != null && chunks.length == 1) {
+			return chunks[0];
+		}
+
+		byte[] data = new byte[length];
+		int offset = 0;
+		if (chunks != null) {
+			for (byte[] chunk : chunks) {
+				System.arraycopy(chunk, 0, data, offset, chunk.length);
+				offset += chunk.length;
+			}
+		} else {
+			for (ByteBuffer buffer : buffers) {
+				int remaining = buffer.remaining();
+				buffer.duplicate().get(data, offset, remaining);
+				offset += remaining;
+			}
+		}
 		return data;
 	}
 
+	/**
+	 * The chunks to be written. For a request held in buffers, these are
+	 * copies.
+	 * 
+	 * @return
+	 */
+	public byte[][] getChunks() {
+		if (chunks != null) {
+			return chunks;
+		}
+
+		byte[][] copies = new byte[buffers.length][];
+		for (int i = 0; i < buffers.length; i++) {
+			copies[i] = new byte[buffers[i].remaining()];
+			buffers[i].duplicate().get(copies[i]);
+		}
+		return copies;
+	}
+
+	/**
+	 * The buffers to be written, or null if the request holds arrays
+	 * 
+	 * @return
+	 */
+	public ByteBuffer[] getBuffers() {
+		return buffers;
+	}
+
+	/**
+	 * The number of chunks or buffers in the request
+	 * 
+	 * @return
+	 */
+	public int getBufferCount() {
+		return chunks != null ? chunks.length : buffers.length;
+	}
+
+	/**
+	 * A view of one of the request's chunks or buffers, whose position can be
+	 * moved as it is written
+	 * 
+	 * @param index
+	 * @return
+	 */
+	public ByteBuffer getBuffer(int index) {
+		return chunks != null ? ByteBuffer.wrap(chunks[index])
+				: buffers[index].duplicate();
+	}
+
+	/**
+	 * The total number of bytes to be written
+	 * 
+	 * @return
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * The number of bytes written by this request, including any that are
+	 * not held in its chunks
+	 * 
+	 * @return
+	 */
+	public long getTransferLength() {
+		return length;
+	}
+
 	public void notifySendSuccess() {
 		if (parent != null) {
 			parent.onWriteSuccess(new AsyncWriteEvent(this,
 					AsyncWriteEvent.SUCCESS, null));
 		}
+		release();
+	}
 
+	/**
+	 * Notifies the parent of success through a reused event, which is only
+	 * valid during the callback
+	 * 
+	 * @param event
+	 */
+	void notifySendSuccess(AsyncWriteEvent event) {
+		if (parent != null) {
+			event.reset(this, AsyncWriteEvent.SUCCESS, null);
+			parent.onWriteSuccess(event);
+		}
+		release();
 	}
 
 	public void notifySendFailure(Exception e) {
 		if (parent != null)
 			parent.onWriteFailure(new AsyncWriteEvent(this,
 					AsyncWriteEvent.FAILURE, e));
+		release();
 	}
 
 	public void notifySendUnavailable() {
@@ -52,6 +301,17 @@ public class AsyncWriteRequest {
 			parent.onWriterClosed(new AsyncWriteEvent(this,
 					AsyncIOEvent.CLOSURE, null));
 		}
+		release();
+	}
+
+	/**
+	 * Returns a leased buffer once the request has finished and its parent
+	 * has been notified
+	 */
+	private void release() {
+		if (lease != null) {
+			lease.release();
+		}
 	}
 
 }
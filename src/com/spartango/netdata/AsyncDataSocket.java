@@ -2,14 +2,34 @@ package com.spartango.netdata;
 
 import java.io.IOException;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.dataread.AsyncChannelDataReader;
 import com.spartango.io.dataread.AsyncDataReadListener;
 import com.spartango.io.dataread.AsyncDataReader;
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.write.AsyncChannelWriter;
+import com.spartango.io.write.AsyncFileWriteRequest;
 import com.spartango.io.write.AsyncOutputWriter;
+import com.spartango.io.write.AsyncWriteFuture;
 import com.spartango.io.write.AsyncWriteRequest;
 import com.spartango.io.write.AsyncWriteSender;
+import com.spartango.network.AsyncConnector;
+import com.spartango.network.AsyncSocketOptions;
 
 /**
  * Implements an asynchronous socket connected to a host and port, allowing for
@@ -25,6 +45,7 @@ public class AsyncDataSocket {
 	private Socket socket;
 	private AsyncDataReader reader;
 	private AsyncOutputWriter writer;
+	private AsyncFrameDecoder decoder;
 
 	private boolean running;
 
@@ -44,6 +65,24 @@ public class AsyncDataSocket {
 		this(new Socket(host, port), dataLength);
 	}
 
+	/**
+	 * Creates a new socket connection to a host on a given port, with the
+	 * given options applied before connecting. BLOCKING--will wait for socket
+	 * connection
+	 * 
+	 * @param host
+	 * @param port
+	 * @param dataLength
+	 * @param options
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public AsyncDataSocket(String host, int port, int dataLength,
+			AsyncSocketOptions options) throws UnknownHostException,
+			IOException {
+		this(options.openSocket(host, port), dataLength);
+	}
+
 	/**
 	 * Wraps an existing socket (connected) in asynchronous readers and writers
 	 * NONBLOCKING
@@ -52,14 +91,183 @@ public class AsyncDataSocket {
 	 * @throws IOException
 	 */
 	public AsyncDataSocket(Socket source, int dataLength) throws IOException {
+		this(source, dataLength, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Wraps an existing socket (connected) in asynchronous readers and writers
+	 * whose threads come from the given factory, such as
+	 * AsyncThreads.virtualThreads(). NONBLOCKING
+	 * 
+	 * @param source
+	 * @param dataLength
+	 * @param threads
+	 * @throws IOException
+	 */
+	public AsyncDataSocket(Socket source, int dataLength, ThreadFactory threads)
+			throws IOException {
 		socket = source;
-		reader = new AsyncDataReader(socket.getInputStream(), dataLength);
-		writer = new AsyncOutputWriter(socket.getOutputStream());
+		reader = new AsyncDataReader(socket.getInputStream(), dataLength,
+				threads);
+		writer = new AsyncOutputWriter(socket.getOutputStream(), threads);
 		running = false;
 
 		start();
 	}
 
+	/**
+	 * Creates a new socket connection to a host on a given port, driven by an
+	 * event loop from the given group rather than dedicated threads.
+	 * BLOCKING--will wait for socket connection
+	 * 
+	 * @param host
+	 * @param port
+	 * @param dataLength
+	 * @param group
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public AsyncDataSocket(String host, int port, int dataLength,
+			AsyncEventLoopGroup group) throws UnknownHostException,
+			IOException {
+		this(SocketChannel.open(new InetSocketAddress(host, port)),
+				dataLength, group);
+	}
+
+	/**
+	 * Creates a new socket connection to a host on a given port, with the
+	 * given options applied before connecting, driven by an event loop from
+	 * the given group. BLOCKING--will wait for socket connection
+	 * 
+	 * @param host
+	 * @param port
+	 * @param dataLength
+	 * @param group
+	 * @param options
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public AsyncDataSocket(String host, int port, int dataLength,
+			AsyncEventLoopGroup group, AsyncSocketOptions options)
+			throws UnknownHostException, IOException {
+		this(options.openChannel(host, port), dataLength, group);
+	}
+
+	/**
+	 * Wraps an existing channel (connected) in asynchronous readers and
+	 * writers driven by an event loop from the given group, so that many
+	 * sockets can share a few threads. NONBLOCKING
+	 * 
+	 * @param source
+	 * @param dataLength
+	 * @param group
+	 * @throws IOException
+	 */
+	public AsyncDataSocket(SocketChannel source, int dataLength,
+			AsyncEventLoopGroup group) throws IOException {
+		this(new AsyncChannel(source, group.next()), dataLength);
+	}
+
+	/**
+	 * Wraps a connected channel, such as one from connectAsync, in
+	 * asynchronous readers and writers driven by the channel's loop.
+	 * NONBLOCKING
+	 * 
+	 * @param channel
+	 * @param dataLength
+	 */
+	public AsyncDataSocket(AsyncChannel channel, int dataLength) {
+		socket = ((SocketChannel) channel.getChannel()).socket();
+		reader = new AsyncChannelDataReader(channel, dataLength);
+		writer = new AsyncChannelWriter(channel);
+		channel.register();
+		running = false;
+
+		start();
+	}
+
+	/**
+	 * Connects to a host without blocking, on an event loop from the given
+	 * group. NONBLOCKING
+	 * 
+	 * @param host
+	 * @param port
+	 * @param dataLength
+	 * @param timeout
+	 *            ms to wait for the connection, or 0 to wait forever
+	 * @param group
+	 * @return a future completed with the connected socket
+	 * @see AsyncConnector
+	 */
+	public static CompletableFuture<AsyncDataSocket> connectAsync(
+			String host, int port, int dataLength, long timeout,
+			AsyncEventLoopGroup group) {
+		return connectAsync(host, port, dataLength, timeout, group, null);
+	}
+
+	/**
+	 * Connects to a host without blocking, on an event loop from the given
+	 * group, with the given options applied before connecting. NONBLOCKING
+	 * 
+	 * @param host
+	 * @param port
+	 * @param dataLength
+	 * @param timeout
+	 *            ms to wait for the connection, or 0 to wait forever
+	 * @param group
+	 * @param options
+	 *            the options, or null for the system defaults
+	 * @return a future completed with the connected socket
+	 * @see AsyncConnector
+	 */
+	public static CompletableFuture<AsyncDataSocket> connectAsync(
+			String host, int port, final int dataLength, long timeout,
+			AsyncEventLoopGroup group, AsyncSocketOptions options) {
+		return connectAsync(host, port, dataLength, timeout, group, options,
+				null);
+	}
+
+	/**
+	 * Connects to a host without blocking, on an event loop from the given
+	 * group, with the given options applied before connecting. A failure to
+	 * connect, and the socket's reads and writes, are reported to the given
+	 * metrics. NONBLOCKING
+	 * 
+	 * @param host
+	 * @param port
+	 * @param dataLength
+	 * @param timeout
+	 *            ms to wait for the connection, or 0 to wait forever
+	 * @param group
+	 * @param options
+	 *            the options, or null for the system defaults
+	 * @param metrics
+	 *            the metrics, or null for the registry's default
+	 * @return a future completed with the connected socket
+	 * @see AsyncConnector
+	 */
+	public static CompletableFuture<AsyncDataSocket> connectAsync(
+			String host, int port, final int dataLength, long timeout,
+			AsyncEventLoopGroup group, AsyncSocketOptions options,
+			final AsyncMetrics metrics) {
+		AsyncConnector connector = new AsyncConnector(group);
+		if (metrics != null) {
+			connector.setMetrics(metrics);
+		}
+		return connector.connect(host, port, timeout, TimeUnit.MILLISECONDS,
+				options).thenApply(
+				new Function<AsyncChannel, AsyncDataSocket>() {
+					public AsyncDataSocket apply(AsyncChannel channel) {
+						AsyncDataSocket socket = new AsyncDataSocket(channel,
+								dataLength);
+						if (metrics != null) {
+							socket.setMetrics(metrics);
+						}
+						return socket;
+					}
+				});
+	}
+
 	/**
 	 * Starts the read and write threads to handle IO operations
 	 */
@@ -95,7 +303,11 @@ public class AsyncDataSocket {
 	 * @param listener
 	 */
 	public void addAsyncSocketListener(AsyncDataReadListener listener) {
-		reader.addAsyncDataReadListener(listener);
+		if (decoder != null) {
+			decoder.addAsyncDataReadListener(listener);
+		} else {
+			reader.addAsyncDataReadListener(listener);
+		}
 	}
 
 	/**
@@ -104,7 +316,96 @@ public class AsyncDataSocket {
 	 * @param listener
 	 */
 	public void removeAsyncSocketListener(AsyncDataReadListener listener) {
-		reader.removeAsyncDataReadListener(listener);
+		if (decoder != null) {
+			decoder.removeAsyncDataReadListener(listener);
+		} else {
+			reader.removeAsyncDataReadListener(listener);
+		}
+	}
+
+	/**
+	 * Notifies this socket's listeners on the given executor, in order,
+	 * rather than on the thread reading the socket. An executor may be shared
+	 * by many sockets.
+	 * 
+	 * @param executor
+	 *            the executor, or null to notify listeners inline
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		reader.setDispatchExecutor(executor);
+	}
+
+	/**
+	 * Stops reading from this socket until resumed, so that once its receive
+	 * buffer fills, the remote sender is held up too. NONBLOCKING
+	 */
+	public void pauseReading() {
+		reader.pauseReading();
+	}
+
+	/**
+	 * Reads from this socket again after pauseReading(). NONBLOCKING
+	 */
+	public void resumeReading() {
+		reader.resumeReading();
+	}
+
+	public boolean isReadingPaused() {
+		return reader.isReadingPaused();
+	}
+
+	/**
+	 * Pauses reading while the given number of events wait on the dispatch
+	 * executor, resuming once half of them have been delivered
+	 * 
+	 * @param maxPendingEvents
+	 *            or 0 for no limit
+	 */
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		reader.setMaxPendingEvents(maxPendingEvents);
+	}
+
+	/**
+	 * Frames all data sent and received on this socket with a length prefix.
+	 * Listeners added afterwards are notified once per complete frame, and
+	 * sends are prefixed with their length. Listeners added beforehand keep
+	 * receiving raw reads. Prepackaged requests are sent as-is.
+	 * 
+	 * @param prefix
+	 * @param maxFrameSize
+	 *            longest frame accepted, in bytes; longer sends throw an
+	 *            IllegalArgumentException
+	 */
+	public void setFraming(AsyncFramePrefix prefix, int maxFrameSize) {
+		if (decoder != null) {
+			throw new IllegalStateException("Framing already set");
+		}
+		decoder = new AsyncFrameDecoder(prefix, maxFrameSize);
+		reader.addAsyncDataReadListener(decoder);
+	}
+
+	public AsyncFramePrefix getFraming() {
+		return decoder != null ? decoder.getPrefix() : null;
+	}
+
+	/**
+	 * The longest frame sent or received, in bytes, or 0 if unframed
+	 * 
+	 * @return
+	 */
+	public int getMaxFrameSize() {
+		return decoder != null ? decoder.getMaxFrameSize() : 0;
+	}
+
+	/**
+	 * Reports this socket's reads and writes to the given metrics rather
+	 * than the registry's default
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		reader.setMetrics(metrics);
+		writer.setMetrics(metrics);
 	}
 
 	/**
@@ -113,7 +414,7 @@ public class AsyncDataSocket {
 	 * @param data
 	 */
 	public void send(String data) {
-		writer.send(data);
+		send(data, null);
 	}
 
 	/**
@@ -122,7 +423,7 @@ public class AsyncDataSocket {
 	 * @param data
 	 */
 	public void send(byte[] data) {
-		writer.send(data);
+		send(data, null);
 	}
 
 	/**
@@ -133,7 +434,11 @@ public class AsyncDataSocket {
 	 * @param parent
 	 */
 	public void send(String data, AsyncWriteSender parent) {
-		writer.send(data, parent);
+		if (decoder != null) {
+			send(data.getBytes(writer.getCharset()), parent);
+		} else {
+			writer.send(data, parent);
+		}
 	}
 	
 	/**
@@ -144,9 +449,192 @@ public class AsyncDataSocket {
 	 * @param parent
 	 */
 	public void send(byte[] data, AsyncWriteSender parent) {
-		writer.send(data, parent);
+		if (decoder != null) {
+			checkFrameSize(data.length);
+			// Prefix goes out in the same write, without copying the data
+			writer.send(new AsyncWriteRequest(parent, new byte[][] {
+					decoder.getPrefix().encode(data.length), data }));
+		} else {
+			writer.send(data, parent);
+		}
+	}
+
+	/**
+	 * Send some data over the socket NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(String data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(data, future);
+		return future;
+	}
+
+	/**
+	 * Send some data over the socket NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(byte[] data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(data, future);
+		return future;
+	}
+
+	/**
+	 * Send a buffer's remaining bytes over the socket, notifying the parent
+	 * as necessary. On an event loop the buffer is written as is, without
+	 * being copied. It must not be changed until the send finishes.
+	 * NONBLOCKING
+	 * 
+	 * @param data
+	 * @param parent
+	 */
+	public void send(ByteBuffer data, AsyncWriteSender parent) {
+		send(new ByteBuffer[] { data }, parent);
+	}
+
+	/**
+	 * Send the remaining bytes of several buffers over the socket, in order
+	 * and as one message if framed. NONBLOCKING
+	 * 
+	 * @param data
+	 * @param parent
+	 */
+	public void send(ByteBuffer[] data, AsyncWriteSender parent) {
+		if (decoder != null) {
+			long length = 0;
+			for (ByteBuffer buffer : data) {
+				length += buffer.remaining();
+			}
+			checkFrameSize(length);
+			ByteBuffer[] framed = new ByteBuffer[data.length + 1];
+			framed[0] = ByteBuffer.wrap(decoder.getPrefix().encode(
+					(int) length));
+			System.arraycopy(data, 0, framed, 1, data.length);
+			writer.send(new AsyncWriteRequest(parent, framed));
+		} else {
+			writer.send(data, parent);
+		}
+	}
+
+	/**
+	 * Send a buffer's remaining bytes over the socket NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(ByteBuffer data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(data, future);
+		return future;
+	}
+
+	/**
+	 * Send the remaining bytes of several buffers over the socket NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(ByteBuffer[] data) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		send(data, future);
+		return future;
+	}
+
+	/**
+	 * Send part of a file over the socket, in order with other sends. On an
+	 * event loop the file goes from the kernel's cache straight to the
+	 * socket. When framed, the count must be given, and fit in a frame. The
+	 * file is left open. NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file if unframed
+	 * @param parent
+	 */
+	public void sendFile(FileChannel file, long position, long count,
+			AsyncWriteSender parent) {
+		writer.send(new AsyncFileWriteRequest(parent, frameHeader(count),
+				file, position, count));
 	}
 
+	/**
+	 * Send part of a file over the socket, in order with other sends. The
+	 * file is opened when its turn comes, and closed after. NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file if unframed
+	 * @param parent
+	 */
+	public void sendFile(Path file, long position, long count,
+			AsyncWriteSender parent) {
+		writer.send(new AsyncFileWriteRequest(parent, frameHeader(count),
+				file, position, count));
+	}
+
+	/**
+	 * Send part of a file over the socket. The file is left open.
+	 * NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file if unframed
+	 * @return a future completed once the file has been written
+	 */
+	public AsyncWriteFuture sendFileAsync(FileChannel file, long position,
+			long count) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		sendFile(file, position, count, future);
+		return future;
+	}
+
+	/**
+	 * Send part of a file over the socket NONBLOCKING
+	 * 
+	 * @param file
+	 * @param position
+	 * @param count
+	 *            bytes to send, or -1 for the rest of the file if unframed
+	 * @return a future completed once the file has been written
+	 */
+	public AsyncWriteFuture sendFileAsync(Path file, long position,
+			long count) {
+		AsyncWriteFuture future = new AsyncWriteFuture();
+		sendFile(file, position, count, future);
+		return future;
+	}
+
+	private byte[][] frameHeader(long count) {
+		if (decoder == null) {
+			return new byte[0][];
+		}
+		if (count < 0) {
+			throw new IllegalArgumentException(
+					"Framed file must have a known length");
+		}
+		checkFrameSize(count);
+		return new byte[][] { decoder.getPrefix().encode((int) count) };
+	}
+
+	/**
+	 * Refuses a message too long for one frame, which the peer's decoder
+	 * would reject as corrupt
+	 * 
+	 * @param length
+	 */
+	private void checkFrameSize(long length) {
+		if (length > decoder.getMaxFrameSize()) {
+			throw new IllegalArgumentException("Frame of " + length
+					+ " bytes exceeds max of " + decoder.getMaxFrameSize());
+		}
+	}
 
 	/**
 	 * Send some data over the socket, specified in a prepackaged request.
@@ -166,6 +654,24 @@ public class AsyncDataSocket {
 		return running;
 	}
 
+	/**
+	 * The reader behind this socket, for tuning how data is received
+	 * 
+	 * @return
+	 */
+	public AsyncDataReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * The writer behind this socket, for tuning how sends are flushed
+	 * 
+	 * @return
+	 */
+	public AsyncOutputWriter getWriter() {
+		return writer;
+	}
+
 	public InetAddress getInetAddress() {
 		return socket.getInetAddress();
 	}
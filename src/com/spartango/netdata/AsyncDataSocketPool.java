@@ -0,0 +1,542 @@
+package com.spartango.netdata;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.spartango.io.AsyncTimeout;
+import com.spartango.io.AsyncTimer;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.network.AsyncSocketOptions;
+
+/**
+ * Keeps connections to each host and port open between uses, so that
+ * requests don't pay for a connection each time. Sockets are acquired
+ * without blocking, from the idle connections to that host if there are any,
+ * or through a new connection if the host is below its maximum; otherwise
+ * the acquirer waits for a release.
+ *
+ * A socket must be released, or invalidated if it is no longer fit for use,
+ * once its borrower is done with it; borrowers should remove their listeners
+ * first. Idle connections are closed when the far end closes them, after
+ * they have been idle too long, or when they reach their maximum lifetime.
+ *
+ * @see AsyncDataSocket
+ * @author anand
+ *
+ */
+public class AsyncDataSocketPool {
+	private final AsyncEventLoopGroup group;
+	private final int dataLength;
+	private final AsyncTimer timer;
+	private final ConcurrentMap<String, AsyncPoolPartition> partitions;
+	private final ConcurrentMap<AsyncDataSocket, AsyncPooledConnection> connections;
+
+	private int minIdle = 0; // per host
+	private int maxConnections = 8; // per host
+	private long maxIdleTime = 60000; // ms, 0 -- never idle out
+	private long maxLifetime = 0; // ms, 0 -- unlimited
+	private long evictionInterval = 1000; // ms
+	private long connectTimeout = 10000; // ms, 0 -- wait forever
+	private volatile AsyncSocketOptions socketOptions;
+	private volatile AsyncMetrics metrics; // null -- registry's default
+
+	private volatile AsyncTimeout sweep;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a pool of sockets driven by the given group, evicting on the
+	 * shared timer
+	 *
+	 * @param group
+	 * @param dataLength
+	 *            the read length of each socket
+	 */
+	public AsyncDataSocketPool(AsyncEventLoopGroup group, int dataLength) {
+		this(group, dataLength, AsyncTimer.getShared());
+	}
+
+	/**
+	 * Creates a pool of sockets driven by the given group, evicting on the
+	 * given timer
+	 *
+	 * @param group
+	 * @param dataLength
+	 * @param timer
+	 */
+	public AsyncDataSocketPool(AsyncEventLoopGroup group, int dataLength,
+			AsyncTimer timer) {
+		this.group = group;
+		this.dataLength = dataLength;
+		this.timer = timer;
+		partitions = new ConcurrentHashMap<String, AsyncPoolPartition>();
+		connections = new ConcurrentHashMap<AsyncDataSocket, AsyncPooledConnection>();
+		closed = false;
+
+		scheduleSweep();
+	}
+
+	/**
+	 * Borrows a socket connected to the given host. NONBLOCKING
+	 *
+	 * @param host
+	 * @param port
+	 * @return a future completed with the socket, or exceptionally if a
+	 *         connection could not be made
+	 */
+	public CompletableFuture<AsyncDataSocket> acquire(String host, int port) {
+		CompletableFuture<AsyncDataSocket> future = new CompletableFuture<AsyncDataSocket>();
+		if (closed) {
+			future.completeExceptionally(new ClosedChannelException());
+			return future;
+		}
+
+		AsyncPoolPartition partition = partitionFor(host, port);
+		long now = System.currentTimeMillis();
+		List<AsyncPooledConnection> stale = null;
+		AsyncPooledConnection connection;
+		boolean connect = false;
+		synchronized (partition) {
+			while ((connection = partition.idle.pollFirst()) != null
+					&& !connection.isUsable(now, maxLifetime)) {
+				stale = discard(partition, connection, stale);
+			}
+			if (connection == null) {
+				partition.waiters.add(future);
+				connect = reserveConnection(partition);
+			} else {
+				connection.lend();
+			}
+		}
+
+		closeAll(stale);
+		if (connection != null) {
+			future.complete(connection.getSocket());
+		} else if (connect) {
+			connect(partition);
+		}
+		return future;
+	}
+
+	/**
+	 * Returns a borrowed socket to the pool, for the next borrower. A socket
+	 * already returned is ignored, as it may have a new borrower.
+	 * NONBLOCKING
+	 *
+	 * @param socket
+	 */
+	public void release(AsyncDataSocket socket) {
+		AsyncPooledConnection connection = connections.get(socket);
+		if (connection == null) {
+			socket.close();
+		} else if (!connection.giveBack()) {
+			return;
+		} else if (closed
+				|| !connection.isUsable(System.currentTimeMillis(),
+						maxLifetime)) {
+			remove(connection);
+		} else {
+			handOff(connection);
+		}
+	}
+
+	/**
+	 * Closes a borrowed socket that is no longer fit for use, making room for
+	 * a new connection. A socket already returned is ignored. NONBLOCKING
+	 *
+	 * @param socket
+	 */
+	public void invalidate(AsyncDataSocket socket) {
+		AsyncPooledConnection connection = connections.get(socket);
+		if (connection == null) {
+			socket.close();
+		} else if (connection.giveBack()) {
+			remove(connection);
+		}
+	}
+
+	/**
+	 * Closes a connection that is not idle, replacing it if acquirers are
+	 * waiting
+	 */
+	private void remove(AsyncPooledConnection connection) {
+		AsyncDataSocket socket = connection.getSocket();
+		if (!connections.remove(socket, connection)) {
+			socket.close();
+			return;
+		}
+
+		AsyncPoolPartition partition = connection.getPartition();
+		boolean connect;
+		synchronized (partition) {
+			partition.idle.remove(connection);
+			partition.total--;
+			connect = partition.waiters.size() > partition.connecting
+					&& reserveConnection(partition);
+		}
+		socket.close();
+		if (connect) {
+			connect(partition);
+		}
+	}
+
+	private AsyncPoolPartition partitionFor(String host, int port) {
+		String key = host + ":" + port;
+		AsyncPoolPartition partition = partitions.get(key);
+		if (partition == null) {
+			AsyncPoolPartition created = new AsyncPoolPartition(host, port);
+			partition = partitions.putIfAbsent(key, created);
+			if (partition == null) {
+				partition = created;
+			}
+		}
+		return partition;
+	}
+
+	/**
+	 * Counts a new connection against the partition's maximum. Must hold the
+	 * partition's monitor.
+	 *
+	 * @return whether there was room for it
+	 */
+	private boolean reserveConnection(AsyncPoolPartition partition) {
+		if (closed || partition.total >= maxConnections) {
+			return false;
+		}
+		partition.total++;
+		partition.connecting++;
+		return true;
+	}
+
+	private void connect(final AsyncPoolPartition partition) {
+		CompletableFuture<AsyncDataSocket> future = AsyncDataSocket
+				.connectAsync(partition.host, partition.port, dataLength,
+						connectTimeout, group, socketOptions, metrics);
+		future.whenComplete(new BiConsumer<AsyncDataSocket, Throwable>() {
+			public void accept(AsyncDataSocket socket, Throwable e) {
+				if (e != null) {
+					connectFailed(partition, e);
+				} else {
+					connected(partition, socket);
+				}
+			}
+		});
+	}
+
+	private void connected(AsyncPoolPartition partition,
+			AsyncDataSocket socket) {
+		AsyncPooledConnection connection = new AsyncPooledConnection(socket,
+				partition);
+		connections.put(socket, connection);
+		synchronized (partition) {
+			partition.connecting--;
+		}
+		if (closed) {
+			remove(connection);
+		} else {
+			handOff(connection);
+		}
+	}
+
+	private void connectFailed(AsyncPoolPartition partition, Throwable e) {
+		// Fail the waiters that the remaining connections can't serve
+		List<CompletableFuture<AsyncDataSocket>> failed = new ArrayList<CompletableFuture<AsyncDataSocket>>();
+		synchronized (partition) {
+			partition.total--;
+			partition.connecting--;
+			while (partition.waiters.size() > partition.connecting) {
+				failed.add(partition.waiters.poll());
+			}
+		}
+		for (CompletableFuture<AsyncDataSocket> waiter : failed) {
+			waiter.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Gives a connection to the longest waiting acquirer, or makes it idle
+	 */
+	private void handOff(AsyncPooledConnection connection) {
+		AsyncPoolPartition partition = connection.getPartition();
+		while (true) {
+			CompletableFuture<AsyncDataSocket> waiter;
+			synchronized (partition) {
+				// Skip acquirers that have given up
+				while ((waiter = partition.waiters.poll()) != null
+						&& waiter.isDone()) {
+				}
+				if (waiter == null) {
+					connection.setIdleSince(System.currentTimeMillis());
+					partition.idle.addFirst(connection);
+					return;
+				}
+			}
+			// Lent first, as the borrower may release it from complete()
+			connection.lend();
+			if (waiter.complete(connection.getSocket())) {
+				return;
+			}
+			connection.giveBack();
+		}
+	}
+
+	/**
+	 * Drops a connection that has been taken off the idle list. Must hold
+	 * the partition's monitor; the connection is closed later, by closeAll.
+	 */
+	private List<AsyncPooledConnection> discard(AsyncPoolPartition partition,
+			AsyncPooledConnection connection,
+			List<AsyncPooledConnection> stale) {
+		connections.remove(connection.getSocket());
+		partition.total--;
+		if (stale == null) {
+			stale = new ArrayList<AsyncPooledConnection>();
+		}
+		stale.add(connection);
+		return stale;
+	}
+
+	private void closeAll(List<AsyncPooledConnection> stale) {
+		if (stale != null) {
+			for (AsyncPooledConnection connection : stale) {
+				connection.getSocket().close();
+			}
+		}
+	}
+
+	private void scheduleSweep() {
+		sweep = timer.schedule(new Runnable() {
+			public void run() {
+				evict();
+				if (!closed) {
+					scheduleSweep();
+				}
+			}
+		}, evictionInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes idle connections that are dead, have been idle too long, or
+	 * have outlived their lifetime, and tops each host up to its minimum
+	 */
+	private void evict() {
+		long now = System.currentTimeMillis();
+		for (AsyncPoolPartition partition : partitions.values()) {
+			List<AsyncPooledConnection> stale = null;
+			int replacements = 0;
+			synchronized (partition) {
+				int kept = 0;
+				Iterator<AsyncPooledConnection> idle = partition.idle
+						.iterator();
+				while (idle.hasNext()) {
+					AsyncPooledConnection connection = idle.next();
+					long idleTime = now - connection.getIdleSince();
+					boolean surplus = kept >= minIdle && maxIdleTime > 0;
+					if (!connection.isUsable(now, maxLifetime)
+							|| (surplus && idleTime >= maxIdleTime)) {
+						idle.remove();
+						stale = discard(partition, connection, stale);
+					} else {
+						kept++;
+					}
+				}
+				while (partition.idle.size() + partition.connecting < minIdle
+						&& reserveConnection(partition)) {
+					replacements++;
+				}
+			}
+
+			closeAll(stale);
+			for (int i = 0; i < replacements; i++) {
+				connect(partition);
+			}
+		}
+	}
+
+	/**
+	 * Closes every idle connection and fails every waiting acquirer. Sockets
+	 * still borrowed are closed as they are released.
+	 */
+	public void close() {
+		closed = true;
+		AsyncTimeout scheduled = sweep;
+		if (scheduled != null) {
+			scheduled.cancel();
+		}
+
+		for (AsyncPoolPartition partition : partitions.values()) {
+			List<AsyncPooledConnection> stale = null;
+			List<CompletableFuture<AsyncDataSocket>> waiters;
+			synchronized (partition) {
+				AsyncPooledConnection connection;
+				while ((connection = partition.idle.pollFirst()) != null) {
+					stale = discard(partition, connection, stale);
+				}
+				waiters = new ArrayList<CompletableFuture<AsyncDataSocket>>(
+						partition.waiters);
+				partition.waiters.clear();
+			}
+
+			closeAll(stale);
+			for (CompletableFuture<AsyncDataSocket> waiter : waiters) {
+				waiter.completeExceptionally(new ClosedChannelException());
+			}
+		}
+	}
+
+	/**
+	 * The number of idle connections to a host
+	 *
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	public int getIdleCount(String host, int port) {
+		AsyncPoolPartition partition = partitions.get(host + ":" + port);
+		if (partition == null) {
+			return 0;
+		}
+		synchronized (partition) {
+			return partition.idle.size();
+		}
+	}
+
+	/**
+	 * The number of connections to a host, whether idle, borrowed or still
+	 * connecting
+	 *
+	 * @param host
+	 * @param port
+	 * @return
+	 */
+	public int getConnectionCount(String host, int port) {
+		AsyncPoolPartition partition = partitions.get(host + ":" + port);
+		if (partition == null) {
+			return 0;
+		}
+		synchronized (partition) {
+			return partition.total;
+		}
+	}
+
+	public int getMinIdle() {
+		return minIdle;
+	}
+
+	/**
+	 * Sets how many idle connections to keep open to each host that has been
+	 * used, replacing them as they close
+	 *
+	 * @param minIdle
+	 */
+	public void setMinIdle(int minIdle) {
+		this.minIdle = minIdle;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Sets how many connections may be open to each host, beyond which
+	 * acquirers wait for a release
+	 *
+	 * @param maxConnections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public long getMaxIdleTime() {
+		return maxIdleTime;
+	}
+
+	/**
+	 * Sets how long (ms) a connection beyond the minimum may sit idle before
+	 * it is closed
+	 *
+	 * @param maxIdleTime
+	 *            the time, or 0 to keep idle connections open
+	 */
+	public void setMaxIdleTime(long maxIdleTime) {
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	public long getMaxLifetime() {
+		return maxLifetime;
+	}
+
+	/**
+	 * Sets how long (ms) a connection may be used before it is closed, even
+	 * if healthy
+	 *
+	 * @param maxLifetime
+	 *            the lifetime, or 0 for no limit
+	 */
+	public void setMaxLifetime(long maxLifetime) {
+		this.maxLifetime = maxLifetime;
+	}
+
+	public long getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	/**
+	 * Sets how long (ms) a new connection may take before its acquirers fail
+	 *
+	 * @param connectTimeout
+	 *            the timeout, or 0 to wait forever
+	 */
+	public void setConnectTimeout(long connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public AsyncSocketOptions getSocketOptions() {
+		return socketOptions;
+	}
+
+	/**
+	 * Sets the options applied to new connections
+	 *
+	 * @param socketOptions
+	 *            the options, or null for the system defaults
+	 */
+	public void setSocketOptions(AsyncSocketOptions socketOptions) {
+		this.socketOptions = socketOptions;
+	}
+
+	public AsyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports new connections, and failures to connect, to the given metrics
+	 *
+	 * @param metrics
+	 *            the metrics, or null for the registry's default
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public long getEvictionInterval() {
+		return evictionInterval;
+	}
+
+	/**
+	 * Sets how often (ms) idle connections are checked, from the next check
+	 *
+	 * @param evictionInterval
+	 */
+	public void setEvictionInterval(long evictionInterval) {
+		this.evictionInterval = evictionInterval;
+	}
+
+}
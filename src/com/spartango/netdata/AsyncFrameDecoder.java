@@ -0,0 +1,256 @@
+package com.spartango.netdata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.spartango.io.AsyncListenerList;
+import com.spartango.io.buffer.AsyncBufferLease;
+import com.spartango.io.dataread.AsyncDataReadEvent;
+import com.spartango.io.dataread.AsyncDataReadListener;
+import com.spartango.io.dataread.AsyncDataReader;
+
+/**
+ * Reassembles length-prefixed frames from the raw reads of an
+ * AsyncDataReader, notifying its own listeners exactly once per complete
+ * frame. Frames that arrive whole are handed out as slices of the read
+ * itself; partial frames are accumulated in a growable buffer and handed out
+ * as slices of it once complete. A frame's lease is only valid during the
+ * callback unless retained.
+ * 
+ * @see AsyncFramePrefix
+ * @author anand
+ * 
+ */
+public class AsyncFrameDecoder implements AsyncDataReadListener {
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final AsyncFramePrefix prefix;
+	private final int maxFrameSize;
+	private final AsyncListenerList<AsyncDataReadListener> listeners;
+
+	private AsyncBufferLease cumulation;
+	private int start;
+	private int end;
+
+	// Outputs of parseHeader
+	private int headerLength;
+	private int frameLength;
+
+	/**
+	 * @param prefix
+	 * @param maxFrameSize
+	 *            frames declaring a larger length fail the reader
+	 */
+	public AsyncFrameDecoder(AsyncFramePrefix prefix, int maxFrameSize) {
+		this.prefix = prefix;
+		this.maxFrameSize = maxFrameSize;
+		listeners = new AsyncListenerList<AsyncDataReadListener>(
+				AsyncDataReadListener.class);
+		cumulation = null;
+		start = end = 0;
+	}
+
+	@Override
+	public void onDataReceived(AsyncDataReadEvent e) {
+		int length = e.getDataLength();
+		if (length <= 0) {
+			return;
+		}
+
+		AsyncBufferLease lease = e.getLease();
+		try {
+			if (start == end
+					&& (lease == null || lease.getBuffer().hasArray())) {
+				// Nothing pending, so frames can be sliced from the read itself
+				AsyncBufferLease source = lease != null ? lease
+						: new AsyncBufferLease(ByteBuffer.wrap(e.getData()));
+				ByteBuffer buffer = source.getBuffer();
+				int consumed = decode(e.getSource(), source, buffer.array(),
+						buffer.arrayOffset() + buffer.position(), length);
+				if (consumed < length) {
+					append(buffer, buffer.position() + consumed, length
+							- consumed);
+				}
+			} else {
+				ByteBuffer buffer = lease != null ? lease.getBuffer()
+						: ByteBuffer.wrap(e.getData());
+				append(buffer, buffer.position(), length);
+				start += decode(e.getSource(), cumulation, cumulation
+						.getBuffer().array(), start, end - start);
+				if (start == end) {
+					start = end = 0;
+				}
+			}
+		} catch (IOException failure) {
+			start = end = 0;
+			notifyReadFailure(e.getSource(), failure);
+			e.getSource().close();
+		}
+	}
+
+	/**
+	 * Notifies listeners of each complete frame in the given range
+	 * 
+	 * @return the number of bytes consumed
+	 * @throws IOException
+	 *             if a frame is malformed or too large
+	 */
+	private int decode(AsyncDataReader reader, AsyncBufferLease source,
+			byte[] array, int offset, int length) throws IOException {
+		int base = offset - source.getBuffer().arrayOffset();
+		int position = 0;
+		while (parseHeader(array, offset + position, length - position)
+				&& length - position - headerLength >= frameLength) {
+			int frameStart = position + headerLength;
+			notifyNewFrame(reader,
+					source.slice(base + frameStart, frameLength), frameLength);
+			position = frameStart + frameLength;
+		}
+		return position;
+	}
+
+	/**
+	 * Reads a length prefix, setting headerLength and frameLength
+	 * 
+	 * @return false if the prefix is incomplete
+	 * @throws IOException
+	 */
+	private boolean parseHeader(byte[] array, int offset, int available)
+			throws IOException {
+		switch (prefix) {
+		case SHORT:
+			if (available < 2) {
+				return false;
+			}
+			headerLength = 2;
+			frameLength = ((array[offset] & 0xFF) << 8)
+					| (array[offset + 1] & 0xFF);
+			break;
+		case INT:
+			if (available < 4) {
+				return false;
+			}
+			headerLength = 4;
+			frameLength = ((array[offset] & 0xFF) << 24)
+					| ((array[offset + 1] & 0xFF) << 16)
+					| ((array[offset + 2] & 0xFF) << 8)
+					| (array[offset + 3] & 0xFF);
+			break;
+		default:
+			int value = 0;
+			int i = 0;
+			while (true) {
+				if (i == available) {
+					return false;
+				}
+				if (i == prefix.getMaxHeaderLength()) {
+					throw new IOException("Malformed varint frame prefix");
+				}
+				byte b = array[offset + i];
+				value |= (b & 0x7F) << (7 * i);
+				i++;
+				if ((b & 0x80) == 0) {
+					break;
+				}
+			}
+			headerLength = i;
+			frameLength = value;
+		}
+
+		if (frameLength < 0 || frameLength > maxFrameSize) {
+			throw new IOException("Frame of " + (frameLength & 0xFFFFFFFFL)
+					+ " bytes exceeds max of " + maxFrameSize);
+		}
+		return true;
+	}
+
+	/**
+	 * Copies bytes onto the end of the cumulation buffer, compacting or
+	 * growing it as needed. A buffer that a listener has retained a frame
+	 * from is never written over; it is replaced instead.
+	 */
+	private void append(ByteBuffer source, int offset, int length) {
+		int pending = end - start;
+		boolean shared = cumulation != null
+				&& cumulation.getReferenceCount() > 1;
+		int capacity = cumulation != null ? cumulation.getBuffer().capacity()
+				: 0;
+
+		if (shared || pending + length > capacity) {
+			int size = Math.max(capacity, INITIAL_CAPACITY);
+			while (size < pending + length) {
+				size *= 2;
+			}
+			AsyncBufferLease larger = new AsyncBufferLease(
+					ByteBuffer.allocate(size));
+			if (pending > 0) {
+				System.arraycopy(cumulation.getBuffer().array(), start, larger
+						.getBuffer().array(), 0, pending);
+			}
+			if (cumulation != null) {
+				cumulation.release();
+			}
+			cumulation = larger;
+			start = 0;
+			end = pending;
+		} else if (end + length > capacity) {
+			byte[] array = cumulation.getBuffer().array();
+			System.arraycopy(array, start, array, 0, pending);
+			start = 0;
+			end = pending;
+		}
+
+		ByteBuffer from = source.duplicate();
+		from.limit(offset + length).position(offset);
+		from.get(cumulation.getBuffer().array(), end, length);
+		end += length;
+	}
+
+	private void notifyNewFrame(AsyncDataReader reader, AsyncBufferLease frame,
+			int length) {
+		AsyncDataReadEvent event = new AsyncDataReadEvent(reader,
+				AsyncDataReadEvent.SUCCESS, frame, length, null);
+		for (AsyncDataReadListener listener : listeners.getListeners()) {
+			listener.onDataReceived(event);
+		}
+	}
+
+	private void notifyReadFailure(AsyncDataReader reader, Exception e) {
+		AsyncDataReadEvent event = new AsyncDataReadEvent(reader,
+				AsyncDataReadEvent.FAILURE, (byte[]) null, 0, e);
+		for (AsyncDataReadListener listener : listeners.getListeners()) {
+			listener.onReceiveFailed(event);
+		}
+	}
+
+	@Override
+	public void onReceiveFailed(AsyncDataReadEvent e) {
+		for (AsyncDataReadListener listener : listeners.getListeners()) {
+			listener.onReceiveFailed(e);
+		}
+	}
+
+	@Override
+	public void onReaderClosed(AsyncDataReadEvent e) {
+		for (AsyncDataReadListener listener : listeners.getListeners()) {
+			listener.onReaderClosed(e);
+		}
+	}
+
+	public void addAsyncDataReadListener(AsyncDataReadListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeAsyncDataReadListener(AsyncDataReadListener listener) {
+		listeners.remove(listener);
+	}
+
+	public AsyncFramePrefix getPrefix() {
+		return prefix;
+	}
+
+	public int getMaxFrameSize() {
+		return maxFrameSize;
+	}
+
+}
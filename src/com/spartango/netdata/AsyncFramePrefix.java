@@ -0,0 +1,68 @@
+package com.spartango.netdata;
+
+/**
+ * The length prefixes with which AsyncDataSocket can frame messages
+ * 
+ * @see AsyncFrameDecoder
+ * @author anand
+ * 
+ */
+public enum AsyncFramePrefix {
+	/** Unsigned LEB128, 1 to 5 bytes */
+	VARINT(5),
+	/** Unsigned 2-byte big-endian */
+	SHORT(2),
+	/** Signed 4-byte big-endian */
+	INT(4);
+
+	private final int maxHeaderLength;
+
+	private AsyncFramePrefix(int maxHeaderLength) {
+		this.maxHeaderLength = maxHeaderLength;
+	}
+
+	public int getMaxHeaderLength() {
+		return maxHeaderLength;
+	}
+
+	/**
+	 * Encodes the prefix for a frame of the given length
+	 * 
+	 * @param frameLength
+	 * @return
+	 */
+	public byte[] encode(int frameLength) {
+		switch (this) {
+		case SHORT:
+			if (frameLength > 0xFFFF) {
+				throw new IllegalArgumentException("Frame of " + frameLength
+						+ " bytes too long for a 2-byte prefix");
+			}
+			return new byte[] { (byte) (frameLength >>> 8),
+					(byte) frameLength };
+		case INT:
+			return new byte[] { (byte) (frameLength >>> 24),
+					(byte) (frameLength >>> 16), (byte) (frameLength >>> 8),
+					(byte) frameLength };
+		default:
+			byte[] header = new byte[varintLength(frameLength)];
+			int value = frameLength;
+			for (int i = 0; i < header.length - 1; i++) {
+				header[i] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			header[header.length - 1] = (byte) value;
+			return header;
+		}
+	}
+
+	private static int varintLength(int value) {
+		int length = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+}
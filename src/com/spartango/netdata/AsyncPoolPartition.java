@@ -0,0 +1,34 @@
+package com.spartango.netdata;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The connections an AsyncDataSocketPool holds to one host and port. All
+ * state is guarded by the partition's monitor.
+ *
+ * @see AsyncDataSocketPool
+ * @author anand
+ *
+ */
+class AsyncPoolPartition {
+	final String host;
+	final int port;
+
+	// Most recently released first, so that surplus connections go idle
+	final Deque<AsyncPooledConnection> idle;
+	final Queue<CompletableFuture<AsyncDataSocket>> waiters;
+	int total; // open or connecting
+	int connecting;
+
+	AsyncPoolPartition(String host, int port) {
+		this.host = host;
+		this.port = port;
+		idle = new ArrayDeque<AsyncPooledConnection>();
+		waiters = new ArrayDeque<CompletableFuture<AsyncDataSocket>>();
+		total = connecting = 0;
+	}
+
+}
@@ -0,0 +1,98 @@
+package com.spartango.netdata;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.spartango.io.dataread.AsyncDataReadEvent;
+import com.spartango.io.dataread.AsyncDataReadListener;
+
+/**
+ * A socket owned by an AsyncDataSocketPool, which watches the socket for
+ * closure so that dead connections are never handed out
+ *
+ * @see AsyncDataSocketPool
+ * @author anand
+ *
+ */
+class AsyncPooledConnection implements AsyncDataReadListener {
+	private final AsyncDataSocket socket;
+	private final AsyncPoolPartition partition;
+	private final long createdAt; // ms
+	private long idleSince; // ms, guarded by the partition
+	private final AtomicBoolean borrowed;
+
+	private volatile boolean dead;
+
+	AsyncPooledConnection(AsyncDataSocket socket,
+			AsyncPoolPartition partition) {
+		this.socket = socket;
+		this.partition = partition;
+		createdAt = idleSince = System.currentTimeMillis();
+		borrowed = new AtomicBoolean(false);
+		dead = false;
+
+		socket.addAsyncSocketListener(this);
+	}
+
+	/**
+	 * Whether the connection is still open, and younger than the given
+	 * lifetime
+	 *
+	 * @param now
+	 * @param maxLifetime
+	 *            ms, or 0 for no limit
+	 * @return
+	 */
+	boolean isUsable(long now, long maxLifetime) {
+		return !dead && socket.isRunning()
+				&& (maxLifetime <= 0 || now - createdAt < maxLifetime);
+	}
+
+	@Override
+	public void onDataReceived(AsyncDataReadEvent e) {
+	}
+
+	@Override
+	public void onReceiveFailed(AsyncDataReadEvent e) {
+		if (e.getType() == AsyncDataReadEvent.CLOSURE) {
+			dead = true;
+		}
+	}
+
+	@Override
+	public void onReaderClosed(AsyncDataReadEvent e) {
+		dead = true;
+	}
+
+	/**
+	 * Marks the connection as handed to a borrower
+	 */
+	void lend() {
+		borrowed.set(true);
+	}
+
+	/**
+	 * Takes the connection back from its borrower, once
+	 *
+	 * @return false if it was not borrowed, as when released twice
+	 */
+	boolean giveBack() {
+		return borrowed.compareAndSet(true, false);
+	}
+
+	AsyncDataSocket getSocket() {
+		return socket;
+	}
+
+	AsyncPoolPartition getPartition() {
+		return partition;
+	}
+
+	long getIdleSince() {
+		return idleSince;
+	}
+
+	void setIdleSince(long idleSince) {
+		this.idleSince = idleSince;
+	}
+
+}
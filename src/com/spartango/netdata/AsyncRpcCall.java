@@ -0,0 +1,104 @@
+package com.spartango.netdata;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+import com.spartango.io.AsyncTimeout;
+import com.spartango.io.write.AsyncWriteEvent;
+import com.spartango.io.write.AsyncWriteSender;
+
+/**
+ * The pending response to a request sent by an AsyncRpcClient. It completes
+ * with the response payload, or exceptionally if the request could not be
+ * sent, timed out, or the connection closed first.
+ *
+ * @see AsyncRpcClient
+ * @author anand
+ *
+ */
+public class AsyncRpcCall extends CompletableFuture<byte[]> implements
+		AsyncWriteSender, Runnable {
+	private final AsyncRpcClient client;
+	private final int correlationId;
+	private volatile AsyncTimeout timeout;
+
+	AsyncRpcCall(AsyncRpcClient client, int correlationId) {
+		this.client = client;
+		this.correlationId = correlationId;
+	}
+
+	public int getCorrelationId() {
+		return correlationId;
+	}
+
+	void setTimeout(AsyncTimeout timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Completes the call with its response
+	 *
+	 * @param response
+	 */
+	void succeed(byte[] response) {
+		cancelTimeout();
+		complete(response);
+	}
+
+	/**
+	 * Fails the call, if it is still waiting for its response
+	 *
+	 * @param e
+	 */
+	void fail(Throwable e) {
+		if (client.forget(this)) {
+			cancelTimeout();
+			completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Cancels the call, so that it no longer waits for its response. The
+	 * request may still be sent.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		boolean cancelled = super.cancel(mayInterruptIfRunning);
+		if (cancelled) {
+			client.forget(this);
+			cancelTimeout();
+		}
+		return cancelled;
+	}
+
+	private void cancelTimeout() {
+		AsyncTimeout scheduled = timeout;
+		if (scheduled != null) {
+			scheduled.cancel();
+		}
+	}
+
+	/**
+	 * Times the call out
+	 */
+	@Override
+	public void run() {
+		fail(new TimeoutException("No response to request " + correlationId));
+	}
+
+	@Override
+	public void onWriteSuccess(AsyncWriteEvent e) {
+	}
+
+	@Override
+	public void onWriteFailure(AsyncWriteEvent e) {
+		fail(e.getError());
+	}
+
+	@Override
+	public void onWriterClosed(AsyncWriteEvent e) {
+		fail(new ClosedChannelException());
+	}
+
+}
@@ -0,0 +1,252 @@
+package com.spartango.netdata;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.spartango.io.AsyncTimer;
+import com.spartango.io.dataread.AsyncDataReadEvent;
+import com.spartango.io.dataread.AsyncDataReadListener;
+import com.spartango.io.write.AsyncWriteRequest;
+import com.spartango.io.write.AsyncWriteSender;
+
+/**
+ * Pipelines requests over a framed AsyncDataSocket, matching each response
+ * to its request by a correlation id. Any number of requests may be in
+ * flight at once, and responses may arrive in any order.
+ *
+ * Each frame carries a 4-byte big-endian correlation id ahead of its
+ * payload; the serving side answers a request with a frame bearing the same
+ * id, for which reply() can be used. Calls complete on the socket's reading
+ * thread, or on the timer thread when they time out.
+ *
+ * @see AsyncRpcCall
+ * @author anand
+ *
+ */
+public class AsyncRpcClient implements AsyncDataReadListener {
+	public static final int HEADER_LENGTH = 4;
+	private static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+	private final AsyncDataSocket socket;
+	private final AsyncTimer timer;
+	private final ConcurrentMap<Integer, AsyncRpcCall> pending;
+	private final AtomicInteger nextId;
+
+	private long defaultTimeout = 0; // ms, 0 -- no timeout
+	private volatile boolean closed;
+
+	/**
+	 * Creates a client on the given socket, timing calls out on the shared
+	 * timer. Sockets without framing are framed with varint prefixes.
+	 *
+	 * @param socket
+	 */
+	public AsyncRpcClient(AsyncDataSocket socket) {
+		this(socket, AsyncTimer.getShared());
+	}
+
+	/**
+	 * Creates a client on the given socket, timing calls out on the given
+	 * timer. Sockets without framing are framed with varint prefixes.
+	 *
+	 * @param socket
+	 * @param timer
+	 */
+	public AsyncRpcClient(AsyncDataSocket socket, AsyncTimer timer) {
+		this.socket = socket;
+		this.timer = timer;
+		pending = new ConcurrentHashMap<Integer, AsyncRpcCall>();
+		nextId = new AtomicInteger();
+		closed = false;
+
+		if (socket.getFraming() == null) {
+			socket.setFraming(AsyncFramePrefix.VARINT, DEFAULT_MAX_FRAME_SIZE);
+		}
+		socket.addAsyncSocketListener(this);
+	}
+
+	/**
+	 * Sends a request, timing out after the default timeout. NONBLOCKING
+	 *
+	 * @param request
+	 * @return the call, completed with the response
+	 */
+	public AsyncRpcCall call(byte[] request) {
+		return call(request, defaultTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Sends a request. NONBLOCKING
+	 *
+	 * @param request
+	 * @param timeout
+	 *            how long to wait for the response, or 0 to wait forever
+	 * @param unit
+	 * @return the call, completed with the response
+	 */
+	public AsyncRpcCall call(byte[] request, long timeout, TimeUnit unit) {
+		int id = nextId.getAndIncrement();
+		AsyncRpcCall call = new AsyncRpcCall(this, id);
+		if (closed) {
+			call.completeExceptionally(new ClosedChannelException());
+			return call;
+		}
+		if (!fitsFrame(socket, request)) {
+			call.completeExceptionally(new IllegalArgumentException(
+					"Request of " + request.length + " bytes exceeds max of "
+							+ maxPayloadSize(socket)));
+			return call;
+		}
+
+		pending.put(id, call);
+		if (timeout > 0) {
+			call.setTimeout(timer.schedule(call, timeout, unit));
+		}
+		socket.send(frame(socket.getFraming(), call, id, request));
+
+		// A close racing with this call may have missed it
+		if (closed) {
+			call.fail(new ClosedChannelException());
+		}
+		return call;
+	}
+
+	private static boolean fitsFrame(AsyncDataSocket socket, byte[] payload) {
+		return payload.length <= maxPayloadSize(socket);
+	}
+
+	private static int maxPayloadSize(AsyncDataSocket socket) {
+		return socket.getMaxFrameSize() - HEADER_LENGTH;
+	}
+
+	private static AsyncWriteRequest frame(AsyncFramePrefix prefix,
+			AsyncWriteSender parent, int id, byte[] payload) {
+		return new AsyncWriteRequest(parent, new byte[][] {
+				prefix.encode(HEADER_LENGTH + payload.length),
+				ByteBuffer.allocate(HEADER_LENGTH).putInt(id).array(),
+				payload });
+	}
+
+	@Override
+	public void onDataReceived(AsyncDataReadEvent e) {
+		int length = e.getDataLength();
+		if (length < HEADER_LENGTH) {
+			return;
+		}
+
+		ByteBuffer frame = frameOf(e);
+		AsyncRpcCall call = pending.remove(frame.getInt());
+		if (call != null) {
+			byte[] response = new byte[length - HEADER_LENGTH];
+			frame.get(response);
+			call.succeed(response);
+		}
+	}
+
+	@Override
+	public void onReceiveFailed(AsyncDataReadEvent e) {
+		if (e.getType() == AsyncDataReadEvent.CLOSURE) {
+			closed = true;
+			failAll();
+		}
+	}
+
+	@Override
+	public void onReaderClosed(AsyncDataReadEvent e) {
+		closed = true;
+		failAll();
+	}
+
+	/**
+	 * Removes a call that is failing, so that it fails only once
+	 *
+	 * @param call
+	 * @return whether the call was still pending
+	 */
+	boolean forget(AsyncRpcCall call) {
+		return pending.remove(call.getCorrelationId(), call);
+	}
+
+	private void failAll() {
+		for (AsyncRpcCall call : pending.values()) {
+			call.fail(new ClosedChannelException());
+		}
+	}
+
+	/**
+	 * Closes the socket, failing every call still waiting for a response
+	 */
+	public void close() {
+		closed = true;
+		socket.close();
+		failAll();
+	}
+
+	/**
+	 * Answers a request received on the serving side, sending the response
+	 * with the request's correlation id. NONBLOCKING
+	 *
+	 * @param socket
+	 *            the socket the request arrived on
+	 * @param request
+	 *            the request's frame
+	 * @param response
+	 */
+	public static void reply(AsyncDataSocket socket,
+			AsyncDataReadEvent request, byte[] response) {
+		if (!fitsFrame(socket, response)) {
+			throw new IllegalArgumentException("Response of "
+					+ response.length + " bytes exceeds max of "
+					+ maxPayloadSize(socket));
+		}
+		int id = frameOf(request).getInt();
+		socket.send(frame(socket.getFraming(), null, id, response));
+	}
+
+	/**
+	 * The payload of a request received on the serving side, without its
+	 * correlation id
+	 *
+	 * @param request
+	 * @return
+	 */
+	public static byte[] getPayload(AsyncDataReadEvent request) {
+		ByteBuffer frame = frameOf(request);
+		frame.position(frame.position() + HEADER_LENGTH);
+		byte[] payload = new byte[frame.remaining()];
+		frame.get(payload);
+		return payload;
+	}
+
+	private static ByteBuffer frameOf(AsyncDataReadEvent e) {
+		if (e.getLease() != null) {
+			ByteBuffer frame = e.getLease().getBuffer().duplicate();
+			frame.limit(frame.position() + e.getDataLength());
+			return frame;
+		}
+		return ByteBuffer.wrap(e.getData(), 0, e.getDataLength());
+	}
+
+	public int getInFlight() {
+		return pending.size();
+	}
+
+	public long getDefaultTimeout() {
+		return defaultTimeout;
+	}
+
+	/**
+	 * Sets how long (ms) calls made without a timeout wait for a response
+	 *
+	 * @param defaultTimeout
+	 *            the timeout, or 0 to wait forever
+	 */
+	public void setDefaultTimeout(long defaultTimeout) {
+		this.defaultTimeout = defaultTimeout;
+	}
+
+}
@@ -0,0 +1,246 @@
+package com.spartango.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.spartango.io.AsyncTimeout;
+import com.spartango.io.AsyncTimer;
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncChannelHandler;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.io.metrics.AsyncMetrics;
+
+/**
+ * One connection being made by an AsyncConnector, racing staggered attempts
+ * to each of a host's addresses. All state is guarded by the operation's
+ * monitor; the future is completed outside it.
+ *
+ * @see AsyncConnector
+ * @author anand
+ *
+ */
+class AsyncConnectOperation implements AsyncChannelHandler {
+	private final AsyncEventLoopGroup group;
+	private final AsyncTimer timer;
+	private final long attemptDelay; // ms
+	private final AsyncSocketOptions options;
+	private final AsyncMetrics metrics;
+	private final CompletableFuture<AsyncChannel> future;
+
+	private final List<AsyncChannel> attempts;
+	private List<InetSocketAddress> targets;
+	private int next;
+	private Throwable lastError;
+	private AsyncTimeout deadline;
+	private AsyncTimeout stagger;
+	private boolean done;
+
+	AsyncConnectOperation(AsyncEventLoopGroup group, AsyncTimer timer,
+			long attemptDelay, AsyncSocketOptions options,
+			AsyncMetrics metrics, CompletableFuture<AsyncChannel> future) {
+		this.group = group;
+		this.timer = timer;
+		this.attemptDelay = attemptDelay;
+		this.options = options;
+		this.metrics = metrics;
+		this.future = future;
+		attempts = new ArrayList<AsyncChannel>();
+		next = 0;
+		done = false;
+	}
+
+	synchronized void startTimeout(long timeout, TimeUnit unit) {
+		if (timeout > 0) {
+			deadline = timer.schedule(new Runnable() {
+				public void run() {
+					fail(new SocketTimeoutException("Connect timed out"));
+				}
+			}, timeout, unit);
+		}
+	}
+
+	/**
+	 * Begins attempting the given addresses, in order
+	 *
+	 * @param addresses
+	 */
+	void start(List<InetSocketAddress> addresses) {
+		synchronized (this) {
+			targets = addresses;
+		}
+		if (addresses.isEmpty()) {
+			fail(new IOException("No addresses to connect to"));
+		} else {
+			attemptNext();
+		}
+	}
+
+	private void attemptNext() {
+		AsyncChannel connected = null;
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			if (stagger != null) {
+				stagger.cancel();
+				stagger = null;
+			}
+			// Addresses that fail at once are skipped straight away
+			int inProgress = attempts.size();
+			while (connected == null && attempts.size() == inProgress
+					&& next < targets.size()) {
+				connected = attempt(targets.get(next++));
+			}
+		}
+
+		if (connected != null) {
+			succeed(connected);
+		} else {
+			checkExhausted();
+		}
+	}
+
+	/**
+	 * Starts connecting to an address. Must hold the monitor.
+	 *
+	 * @return the channel, if it connected immediately
+	 */
+	private AsyncChannel attempt(InetSocketAddress target) {
+		SocketChannel source = null;
+		try {
+			source = SocketChannel.open();
+			if (options != null) {
+				options.applyTo(source);
+			}
+			AsyncChannel channel = new AsyncChannel(source, group.next());
+			channel.setHandler(SelectionKey.OP_CONNECT, this);
+			if (source.connect(target)) {
+				return channel;
+			}
+
+			attempts.add(channel);
+			channel.register();
+			channel.enable(SelectionKey.OP_CONNECT);
+			if (next < targets.size()) {
+				stagger = timer.schedule(new Runnable() {
+					public void run() {
+						attemptNext();
+					}
+				}, attemptDelay, TimeUnit.MILLISECONDS);
+			}
+		} catch (IOException e) {
+			lastError = e;
+			closeQuietly(source);
+		}
+		return null;
+	}
+
+	@Override
+	public void onReady(AsyncChannel source) {
+		try {
+			if (((SocketChannel) source.getChannel()).finishConnect()) {
+				source.disable(SelectionKey.OP_CONNECT);
+				succeed(source);
+			}
+		} catch (IOException e) {
+			synchronized (this) {
+				attempts.remove(source);
+				lastError = e;
+			}
+			source.close();
+			// Try the next address now, rather than after the delay
+			attemptNext();
+		}
+	}
+
+	@Override
+	public void onClosed(AsyncChannel source) {
+	}
+
+	/**
+	 * Fails the operation once every address has been tried and no attempt
+	 * is still in progress
+	 */
+	private void checkExhausted() {
+		Throwable error;
+		synchronized (this) {
+			if (done || next < targets.size() || !attempts.isEmpty()) {
+				return;
+			}
+			error = lastError;
+		}
+		fail(error);
+	}
+
+	private void succeed(AsyncChannel channel) {
+		List<AsyncChannel> losers;
+		synchronized (this) {
+			if (done) {
+				channel.close();
+				return;
+			}
+			done = true;
+			attempts.remove(channel);
+			losers = finish();
+		}
+
+		closeAll(losers);
+		channel.register();
+		future.complete(channel);
+	}
+
+	void fail(Throwable e) {
+		List<AsyncChannel> abandoned;
+		synchronized (this) {
+			if (done) {
+				return;
+			}
+			done = true;
+			abandoned = finish();
+		}
+
+		closeAll(abandoned);
+		metrics.onConnectionFailed();
+		future.completeExceptionally(e);
+	}
+
+	/**
+	 * Stops the timers and takes the attempts still in progress. Must hold
+	 * the monitor.
+	 */
+	private List<AsyncChannel> finish() {
+		if (deadline != null) {
+			deadline.cancel();
+		}
+		if (stagger != null) {
+			stagger.cancel();
+		}
+		List<AsyncChannel> remaining = new ArrayList<AsyncChannel>(attempts);
+		attempts.clear();
+		return remaining;
+	}
+
+	private static void closeQuietly(SocketChannel source) {
+		if (source != null) {
+			try {
+				source.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void closeAll(List<AsyncChannel> channels) {
+		for (AsyncChannel channel : channels) {
+			channel.close();
+		}
+	}
+
+}
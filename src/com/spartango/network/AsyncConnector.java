@@ -0,0 +1,174 @@
+package com.spartango.network;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import com.spartango.io.AsyncTimer;
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.metrics.AsyncMetricsRegistry;
+
+/**
+ * Opens connections without blocking, on the event loops of a group. Host
+ * names are resolved through a cache, and when a name has several addresses
+ * they are tried in the happy-eyeballs style: alternating between IPv6 and
+ * IPv4, each attempt starts after a short delay or as soon as the one before
+ * it fails, and the first to connect wins.
+ *
+ * @see AsyncSocket#connectAsync
+ * @author anand
+ *
+ */
+public class AsyncConnector {
+	private final AsyncEventLoopGroup group;
+	private final AsyncTimer timer;
+	private final AsyncDnsCache resolver;
+
+	private long attemptDelay = 250; // ms
+	private volatile AsyncMetrics metrics;
+
+	/**
+	 * Creates a connector on the given group, using the shared timer and DNS
+	 * cache
+	 *
+	 * @param group
+	 */
+	public AsyncConnector(AsyncEventLoopGroup group) {
+		this(group, AsyncTimer.getShared(), AsyncDnsCache.getShared());
+	}
+
+	/**
+	 * @param group
+	 * @param timer
+	 *            drives connect timeouts and attempt delays
+	 * @param resolver
+	 */
+	public AsyncConnector(AsyncEventLoopGroup group, AsyncTimer timer,
+			AsyncDnsCache resolver) {
+		this.group = group;
+		this.timer = timer;
+		this.resolver = resolver;
+		metrics = AsyncMetricsRegistry.getDefault();
+	}
+
+	/**
+	 * Connects to a host. NONBLOCKING
+	 *
+	 * @param host
+	 * @param port
+	 * @param timeout
+	 *            how long to wait for any attempt to connect, or 0 to wait
+	 *            forever
+	 * @param unit
+	 * @return a future completed with the connected channel, registered with
+	 *         its loop, or exceptionally with the last attempt's error
+	 */
+	public CompletableFuture<AsyncChannel> connect(String host, int port,
+			long timeout, TimeUnit unit) {
+		return connect(host, port, timeout, unit, null);
+	}
+
+	/**
+	 * Connects to a host, applying the given options to each attempt before
+	 * it connects. NONBLOCKING
+	 *
+	 * @param host
+	 * @param port
+	 * @param timeout
+	 *            how long to wait for any attempt to connect, or 0 to wait
+	 *            forever
+	 * @param unit
+	 * @param options
+	 *            the options, or null for the system defaults
+	 * @return a future completed with the connected channel, registered with
+	 *         its loop, or exceptionally with the last attempt's error
+	 */
+	public CompletableFuture<AsyncChannel> connect(String host,
+			final int port, long timeout, TimeUnit unit,
+			AsyncSocketOptions options) {
+		final CompletableFuture<AsyncChannel> future = new CompletableFuture<AsyncChannel>();
+		final AsyncConnectOperation operation = new AsyncConnectOperation(
+				group, timer, attemptDelay, options, metrics, future);
+		operation.startTimeout(timeout, unit);
+
+		resolver.resolve(host).whenComplete(
+				new BiConsumer<InetAddress[], Throwable>() {
+					public void accept(InetAddress[] addresses, Throwable e) {
+						if (e != null) {
+							operation.fail(e);
+						} else {
+							operation.start(order(addresses, port));
+						}
+					}
+				});
+		return future;
+	}
+
+	/**
+	 * Interleaves addresses by family, starting with the resolver's first
+	 * choice
+	 */
+	private static List<InetSocketAddress> order(InetAddress[] addresses,
+			int port) {
+		List<InetSocketAddress> preferred = new ArrayList<InetSocketAddress>();
+		List<InetSocketAddress> other = new ArrayList<InetSocketAddress>();
+		boolean preferV6 = addresses.length > 0
+				&& addresses[0] instanceof Inet6Address;
+		for (InetAddress address : addresses) {
+			InetSocketAddress target = new InetSocketAddress(address, port);
+			if ((address instanceof Inet6Address) == preferV6) {
+				preferred.add(target);
+			} else {
+				other.add(target);
+			}
+		}
+
+		List<InetSocketAddress> ordered = new ArrayList<InetSocketAddress>(
+				addresses.length);
+		for (int i = 0; i < Math.max(preferred.size(), other.size()); i++) {
+			if (i < preferred.size()) {
+				ordered.add(preferred.get(i));
+			}
+			if (i < other.size()) {
+				ordered.add(other.get(i));
+			}
+		}
+		return ordered;
+	}
+
+	public long getAttemptDelay() {
+		return attemptDelay;
+	}
+
+	/**
+	 * Sets how long (ms) an attempt may go unanswered before the next
+	 * address is tried alongside it
+	 *
+	 * @param attemptDelay
+	 */
+	public void setAttemptDelay(long attemptDelay) {
+		this.attemptDelay = attemptDelay;
+	}
+
+	public AsyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports failed connections to the given metrics rather than the
+	 * registry's default
+	 *
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+}
@@ -0,0 +1,196 @@
+package com.spartango.network;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves host names without blocking the caller, caching each result for
+ * a fixed time. Lookups run on a small pool of threads, as the platform
+ * resolver blocks; concurrent lookups of the same name share one resolution.
+ * Expired names are swept out as lookups are made.
+ *
+ * @author anand
+ *
+ */
+public class AsyncDnsCache {
+	private static final int MAX_LOOKUPS = 4; // at once, by default
+	private static final ThreadFactory DAEMON_THREADS = new ThreadFactory() {
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, "AsyncDnsCache");
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+
+	private static AsyncDnsCache shared;
+
+	private final long ttl; // ns
+	private final Executor resolver;
+	private final ConcurrentMap<String, CompletableFuture<InetAddress[]>> entries;
+	private final ConcurrentMap<String, Long> resolvedAt;
+	private volatile long lastSweep; // ns
+
+	/**
+	 * Creates a cache resolving up to four names at once, on daemon threads
+	 * that exit when idle
+	 *
+	 * @param ttl
+	 *            how long a resolution is reused
+	 * @param unit
+	 */
+	public AsyncDnsCache(long ttl, TimeUnit unit) {
+		this(ttl, unit, newResolver());
+	}
+
+	/**
+	 * Creates a cache resolving names on the given executor, whose threads
+	 * may block
+	 *
+	 * @param ttl
+	 *            how long a resolution is reused
+	 * @param unit
+	 * @param resolver
+	 */
+	public AsyncDnsCache(long ttl, TimeUnit unit, Executor resolver) {
+		this.ttl = unit.toNanos(ttl);
+		this.resolver = resolver;
+		entries = new ConcurrentHashMap<String, CompletableFuture<InetAddress[]>>();
+		resolvedAt = new ConcurrentHashMap<String, Long>();
+		lastSweep = System.nanoTime();
+	}
+
+	private static Executor newResolver() {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_LOOKUPS,
+				MAX_LOOKUPS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), DAEMON_THREADS);
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * A cache shared by everything that doesn't need its own, holding names
+	 * for 30 seconds
+	 *
+	 * @return
+	 */
+	public static synchronized AsyncDnsCache getShared() {
+		if (shared == null) {
+			shared = new AsyncDnsCache(30, TimeUnit.SECONDS);
+		}
+		return shared;
+	}
+
+	/**
+	 * Resolves a host name to all of its addresses. NONBLOCKING
+	 *
+	 * @param host
+	 * @return a future completed with the addresses, or exceptionally with an
+	 *         UnknownHostException
+	 */
+	public CompletableFuture<InetAddress[]> resolve(final String host) {
+		sweep();
+		CompletableFuture<InetAddress[]> entry = entries.get(host);
+		if (entry != null && !isStale(host, entry)) {
+			return entry;
+		}
+
+		final CompletableFuture<InetAddress[]> lookup = new CompletableFuture<InetAddress[]>();
+		boolean installed;
+		if (entry == null) {
+			installed = entries.putIfAbsent(host, lookup) == null;
+		} else {
+			installed = entries.replace(host, entry, lookup);
+		}
+		if (!installed) {
+			// Another caller started a lookup first
+			return resolve(host);
+		}
+
+		try {
+			resolver.execute(new Runnable() {
+				public void run() {
+					try {
+						InetAddress[] addresses = InetAddress
+								.getAllByName(host);
+						resolvedAt.put(host, System.nanoTime());
+						lookup.complete(addresses);
+					} catch (Exception e) {
+						// Such as UnknownHostException or SecurityException
+						fail(host, lookup, e);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// Such as a resolver that has been shut down
+			fail(host, lookup, e);
+		}
+		return lookup;
+	}
+
+	private void fail(String host, CompletableFuture<InetAddress[]> lookup,
+			Exception e) {
+		// Failures aren't cached, so the next caller retries
+		entries.remove(host, lookup);
+		lookup.completeExceptionally(e);
+	}
+
+	/**
+	 * Drops every name that has expired, at most once per ttl, so that names
+	 * never looked up again don't stay forever
+	 */
+	private void sweep() {
+		long now = System.nanoTime();
+		long last = lastSweep;
+		if (now - last < ttl) {
+			return;
+		}
+		lastSweep = now;
+
+		for (Map.Entry<String, Long> resolved : resolvedAt.entrySet()) {
+			if (now - resolved.getValue() < ttl) {
+				continue;
+			}
+			String host = resolved.getKey();
+			CompletableFuture<InetAddress[]> entry = entries.get(host);
+			if (entry == null || entry.isDone()) {
+				resolvedAt.remove(host, resolved.getValue());
+				if (entry != null) {
+					entries.remove(host, entry);
+				}
+			}
+		}
+	}
+
+	private boolean isStale(String host,
+			CompletableFuture<InetAddress[]> entry) {
+		if (!entry.isDone()) {
+			return false;
+		}
+		Long time = resolvedAt.get(host);
+		return entry.isCompletedExceptionally() || time == null
+				|| System.nanoTime() - time >= ttl;
+	}
+
+	/**
+	 * Forgets a host's addresses, so that the next lookup resolves it again
+	 *
+	 * @param host
+	 */
+	public void invalidate(String host) {
+		entries.remove(host);
+		resolvedAt.remove(host);
+	}
+
+	public long getTtl(TimeUnit unit) {
+		return unit.convert(ttl, TimeUnit.NANOSECONDS);
+	}
+
+}
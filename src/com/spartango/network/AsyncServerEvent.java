@@ -1,6 +1,9 @@
 package com.spartango.network;
 
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+import com.spartango.io.loop.AsyncEventLoopGroup;
 
 public class AsyncServerEvent {
 	public static final int NEW_CLIENT = 0;
@@ -10,8 +13,10 @@ public class AsyncServerEvent {
 	private final int type;
 	private final AsyncServerSocket source;
 	private final Socket client;
+	private final SocketChannel clientChannel;
+	private final AsyncEventLoopGroup group;
 	private final Exception error;
-	
+
 	/**
 	 * @param type
 	 * @param source
@@ -20,9 +25,37 @@ public class AsyncServerEvent {
 	 */
 	public AsyncServerEvent(int type, AsyncServerSocket source, Socket client,
 			Exception error) {
+		this(type, source, client, null, error);
+	}
+
+	/**
+	 * @param type
+	 * @param source
+	 * @param client
+	 * @param clientChannel
+	 * @param error
+	 */
+	public AsyncServerEvent(int type, AsyncServerSocket source,
+			Socket client, SocketChannel clientChannel, Exception error) {
+		this(type, source, client, clientChannel, null, error);
+	}
+
+	/**
+	 * @param type
+	 * @param source
+	 * @param client
+	 * @param clientChannel
+	 * @param group
+	 * @param error
+	 */
+	public AsyncServerEvent(int type, AsyncServerSocket source,
+			Socket client, SocketChannel clientChannel,
+			AsyncEventLoopGroup group, Exception error) {
 		this.type = type;
 		this.source = source;
 		this.client = client;
+		this.clientChannel = clientChannel;
+		this.group = group;
 		this.error = error;
 	}
 
@@ -38,6 +71,28 @@ public class AsyncServerEvent {
 		return client;
 	}
 
+	/**
+	 * The accepted channel, if the server is driven by an event loop. The
+	 * channel is left in blocking mode, so it may be wrapped by either socket
+	 * engine.
+	 * 
+	 * @return
+	 */
+	public SocketChannel getClientChannel() {
+		return clientChannel;
+	}
+
+	/**
+	 * The group of the acceptor that accepted the client, if the server is
+	 * driven by event loops. Wrapping the client on this group keeps each
+	 * acceptor's clients on its own workers.
+	 * 
+	 * @return
+	 */
+	public AsyncEventLoopGroup getGroup() {
+		return group;
+	}
+
 	public Exception getError() {
 		return error;
 	}
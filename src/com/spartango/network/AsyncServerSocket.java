@@ -1,19 +1,48 @@
 package com.spartango.network;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.List;
-import java.util.Vector;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.spartango.io.AsyncListenerList;
+import com.spartango.io.AsyncSerialExecutor;
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.AsyncTimer;
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncChannelHandler;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.metrics.AsyncMetricsRegistry;
+
+public class AsyncServerSocket implements Runnable, AsyncChannelHandler {
+	private static final int MAX_ACCEPTS_PER_READY = 64;
+	private static final int ACCEPT_BACKOFF = 100; // ms
 
-public class AsyncServerSocket implements Runnable {
 	private int sleepTime = 500; // ms -- Duration between spins during
 									// non-accepting periods
 
 	private ServerSocket server;
-	private List<AsyncServerListener> listeners;
+	private ServerSocketChannel[] serverChannels;
+	private AsyncChannel[] channels; // one per acceptor
+	private AsyncEventLoopGroup[] groups;
+	private final AtomicInteger openAcceptors;
+	private final AsyncSocketOptions options;
+	private AsyncMetrics metrics;
+	private final AsyncListenerList<AsyncServerListener> listeners;
 
 	private Thread runner;
+	private Executor dispatchExecutor;
+	private Executor dispatcher;
 	private boolean running;
 
 	private boolean accepting;
@@ -24,26 +53,218 @@ public class AsyncServerSocket implements Runnable {
 	 * @throws IOException
 	 */
 	public AsyncServerSocket(int port) throws IOException {
+		this(port, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Creates a server whose accept runner comes from the given factory, such
+	 * as AsyncThreads.virtualThreads()
+	 * 
+	 * @param port
+	 * @param threads
+	 * @throws IOException
+	 */
+	public AsyncServerSocket(int port, ThreadFactory threads)
+			throws IOException {
+		this(port, new AsyncSocketOptions(), threads);
+	}
+
+	/**
+	 * Creates a server on the given port with the given options, which also
+	 * apply to each client it accepts
+	 * 
+	 * @param port
+	 * @param options
+	 * @throws IOException
+	 */
+	public AsyncServerSocket(int port, AsyncSocketOptions options)
+			throws IOException {
+		this(port, options, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Creates a server on the given port with the given options, whose accept
+	 * runner comes from the given factory
+	 * 
+	 * @param port
+	 * @param options
+	 * @param threads
+	 * @throws IOException
+	 */
+	public AsyncServerSocket(int port, AsyncSocketOptions options,
+			ThreadFactory threads) throws IOException {
 		running = false;
-		listeners = new Vector<AsyncServerListener>();
-		server = new ServerSocket(port);
-		runner = new Thread(this);
+		this.options = options;
+		listeners = new AsyncListenerList<AsyncServerListener>(
+				AsyncServerListener.class);
+		server = new ServerSocket();
+		try {
+			options.applyTo(server);
+			server.bind(new InetSocketAddress(port), options.getBacklog());
+		} catch (IOException e) {
+			server.close();
+			throw e;
+		}
+		runner = threads.newThread(this);
+		metrics = AsyncMetricsRegistry.getDefault();
+		openAcceptors = new AtomicInteger(1);
 		accepting = false;
 	}
 
+	/**
+	 * Creates a server on the given port, accepting on an event loop from the
+	 * given group rather than a dedicated thread.
+	 * 
+	 * @param port
+	 * @param group
+	 * @throws IOException
+	 */
+	public AsyncServerSocket(int port, AsyncEventLoopGroup group)
+			throws IOException {
+		this(new InetSocketAddress(port), 0, group);
+	}
+
+	/**
+	 * Creates a server bound to the given address, accepting on an event loop
+	 * from the given group. The loop can be shared with client sockets, and
+	 * accepting is paused by withdrawing interest rather than by sleeping.
+	 * 
+	 * @param bindAddress
+	 * @param backlog
+	 *            pending connection limit, or 0 for the system default
+	 * @param group
+	 * @throws IOException
+	 */
+	public AsyncServerSocket(SocketAddress bindAddress, int backlog,
+			AsyncEventLoopGroup group) throws IOException {
+		this(bindAddress, withBacklog(backlog), group);
+	}
+
+	/**
+	 * Creates a server bound to the given address with the given options,
+	 * accepting on an event loop from the given group. The options' backlog
+	 * limits pending connections, and the rest also apply to each client
+	 * accepted.
+	 * 
+	 * @param bindAddress
+	 * @param options
+	 * @param group
+	 * @throws IOException
+	 */
+	public AsyncServerSocket(SocketAddress bindAddress,
+			AsyncSocketOptions options, AsyncEventLoopGroup group)
+			throws IOException {
+		this(bindAddress, options, new AsyncEventLoopGroup[] { group });
+	}
+
+	/**
+	 * Creates a server with one acceptor per group, each listening on the
+	 * same port through SO_REUSEPORT so that the kernel spreads incoming
+	 * connections between them. Each acceptor accepts on its own group's
+	 * loop, and its clients' events name that group, so that accepting and
+	 * serving both scale across the groups. Listeners see the clients of all
+	 * acceptors; they are notified from every acceptor's loop at once unless
+	 * a dispatch executor is set.
+	 * 
+	 * @param bindAddress
+	 * @param options
+	 * @param groups
+	 *            a group for each acceptor
+	 * @throws IOException
+	 * @see AsyncServerEvent#getGroup()
+	 */
+	public AsyncServerSocket(SocketAddress bindAddress,
+			AsyncSocketOptions options, AsyncEventLoopGroup[] groups)
+			throws IOException {
+		if (groups.length == 0) {
+			throw new IllegalArgumentException("No groups to accept on");
+		}
+		running = false;
+		this.options = options;
+		this.groups = groups.clone();
+		listeners = new AsyncListenerList<AsyncServerListener>(
+				AsyncServerListener.class);
+
+		serverChannels = new ServerSocketChannel[groups.length];
+		boolean bound = false;
+		try {
+			for (int i = 0; i < groups.length; i++) {
+				// Later acceptors follow the first, in case its port was
+				// chosen by the system
+				serverChannels[i] = bind(i == 0 ? bindAddress
+						: serverChannels[0].getLocalAddress(),
+						groups.length > 1);
+			}
+			bound = true;
+		} finally {
+			if (!bound) {
+				for (ServerSocketChannel acceptor : serverChannels) {
+					if (acceptor != null) {
+						acceptor.close();
+					}
+				}
+			}
+		}
+		server = serverChannels[0].socket();
+
+		channels = new AsyncChannel[groups.length];
+		for (int i = 0; i < groups.length; i++) {
+			channels[i] = new AsyncChannel(serverChannels[i], groups[i].next());
+			channels[i].setHandler(SelectionKey.OP_ACCEPT, this);
+			channels[i].register();
+		}
+		metrics = AsyncMetricsRegistry.getDefault();
+		openAcceptors = new AtomicInteger(groups.length);
+		accepting = false;
+	}
+
+	private ServerSocketChannel bind(SocketAddress address, boolean shared)
+			throws IOException {
+		ServerSocketChannel acceptor = ServerSocketChannel.open();
+		boolean bound = false;
+		try {
+			options.applyTo(acceptor);
+			if (shared) {
+				if (!acceptor.supportedOptions().contains(
+						StandardSocketOptions.SO_REUSEPORT)) {
+					throw new IOException("SO_REUSEPORT is not supported"
+							+ " here, so only one acceptor can listen");
+				}
+				acceptor.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			acceptor.bind(address, options.getBacklog());
+			bound = true;
+		} finally {
+			if (!bound) {
+				acceptor.close();
+			}
+		}
+		return acceptor;
+	}
+
+	private static AsyncSocketOptions withBacklog(int backlog) {
+		AsyncSocketOptions options = new AsyncSocketOptions();
+		options.setBacklog(backlog);
+		return options;
+	}
+
 	/**
 	 * Starts publishing events to listeners
 	 */
 	public void start() {
 		if (!running) {
-			runner.start();
+			if (channels != null) {
+				running = true;
+				setAccepting(true);
+			} else {
+				runner.start();
+			}
 		}
 	}
 
 	@Override
 	public void run() {
 		running = accepting = true;
-		System.out.println("Accepting");
 		while (running) {
 			if (accepting) {
 				accept();
@@ -56,15 +277,109 @@ public class AsyncServerSocket implements Runnable {
 	}
 
 	private void accept() {
+		Socket client;
+		try {
+			client = server.accept();
+		} catch (IOException e) {
+			notifyFailure(e);
+			if (running) {
+				// Such as out of file descriptors, which won't clear at once
+				try {
+					Thread.sleep(ACCEPT_BACKOFF);
+				} catch (InterruptedException ie) {
+					close();
+				}
+			}
+			return;
+		}
+
 		try {
-			Socket client = server.accept();
-			System.out.println("Accepted new client");
+			try {
+				options.applyTo(client);
+			} catch (IOException e) {
+				client.close();
+				throw e;
+			}
 			notifyNewClient(client);
 		} catch (IOException e) {
 			notifyFailure(e);
 		}
 	}
 
+	@Override
+	public void onReady(AsyncChannel source) {
+		ServerSocketChannel acceptor = (ServerSocketChannel) source
+				.getChannel();
+		AsyncEventLoopGroup group = groupOf(source);
+		for (int i = 0; i < MAX_ACCEPTS_PER_READY && accepting; i++) {
+			SocketChannel client;
+			try {
+				client = acceptor.accept();
+			} catch (IOException e) {
+				notifyFailure(e);
+				backOff(source);
+				return;
+			}
+			if (client == null) {
+				break;
+			}
+
+			try {
+				try {
+					options.applyTo(client);
+				} catch (IOException e) {
+					client.close();
+					throw e;
+				}
+				notifyNewClient(client, group);
+			} catch (IOException e) {
+				notifyFailure(e);
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting on an acceptor for a moment after accept() fails. The
+	 * failure (such as out of file descriptors) leaves the key ready, so
+	 * retrying at once would spin the loop and flood listeners.
+	 * 
+	 * @param acceptor
+	 */
+	private void backOff(final AsyncChannel acceptor) {
+		acceptor.disable(SelectionKey.OP_ACCEPT);
+		AsyncTimer.getShared().schedule(new Runnable() {
+			public void run() {
+				acceptor.getLoop().execute(new Runnable() {
+					public void run() {
+						if (accepting) {
+							acceptor.enable(SelectionKey.OP_ACCEPT);
+						}
+					}
+				});
+			}
+		}, ACCEPT_BACKOFF, TimeUnit.MILLISECONDS);
+	}
+
+	private AsyncEventLoopGroup groupOf(AsyncChannel acceptor) {
+		for (int i = 0; i < channels.length; i++) {
+			if (channels[i] == acceptor) {
+				return groups[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public void onClosed(AsyncChannel source) {
+		running = accepting = false;
+		if (openAcceptors.decrementAndGet() == 0) {
+			notifyServerClosed();
+		} else {
+			// One acceptor closing closes the server
+			close();
+		}
+	}
+
 	public void pause() {
 		try {
 			Thread.sleep(sleepTime);
@@ -74,6 +389,11 @@ public class AsyncServerSocket implements Runnable {
 	}
 
 	public void close() {
+		if (channels != null) {
+			for (AsyncChannel channel : channels) {
+				channel.close();
+			}
+		}
 		running = accepting = false;
 	}
 
@@ -88,24 +408,51 @@ public class AsyncServerSocket implements Runnable {
 	}
 
 	private void notifyServerClosed() {
-		for (AsyncServerListener listener : listeners) {
-			listener.onServerClosed();
-		}
+		dispatch(new Runnable() {
+			public void run() {
+				for (AsyncServerListener listener : listeners.getListeners()) {
+					listener.onServerClosed();
+				}
+			}
+		});
 	}
 
 	private void notifyNewClient(Socket client) {
-		for (AsyncServerListener listener : listeners) {
-			listener.onNewClient(new AsyncServerEvent(
-					AsyncServerEvent.NEW_CLIENT, this, client, null));
-		}
+		metrics.onConnectionAccepted();
+		publish(new AsyncServerEvent(AsyncServerEvent.NEW_CLIENT, this,
+				client, null));
+	}
+
+	private void notifyNewClient(SocketChannel client,
+			AsyncEventLoopGroup group) {
+		metrics.onConnectionAccepted();
+		publish(new AsyncServerEvent(AsyncServerEvent.NEW_CLIENT, this,
+				client.socket(), client, group, null));
 	}
 
 	private void notifyFailure(Exception e) {
+		metrics.onConnectionFailed();
 		// Create an immutable event
-		AsyncServerEvent event = new AsyncServerEvent(AsyncServerEvent.FAILURE,
-				this, null, e);
-		for (AsyncServerListener listener : listeners) {
-			listener.onNewClient(event);
+		publish(new AsyncServerEvent(AsyncServerEvent.FAILURE, this, null, e));
+	}
+
+	private void publish(final AsyncServerEvent event) {
+		dispatch(new Runnable() {
+			public void run() {
+				long start = System.nanoTime();
+				for (AsyncServerListener listener : listeners.getListeners()) {
+					listener.onNewClient(event);
+				}
+				metrics.onListenerCallback(System.nanoTime() - start);
+			}
+		});
+	}
+
+	private void dispatch(Runnable delivery) {
+		if (dispatcher != null) {
+			dispatcher.execute(delivery);
+		} else {
+			delivery.run();
 		}
 	}
 
@@ -115,12 +462,66 @@ public class AsyncServerSocket implements Runnable {
 
 	public void setAccepting(boolean accepting) {
 		this.accepting = accepting;
+		if (channels != null && running) {
+			for (AsyncChannel channel : channels) {
+				if (accepting) {
+					channel.enable(SelectionKey.OP_ACCEPT);
+				} else {
+					channel.disable(SelectionKey.OP_ACCEPT);
+				}
+			}
+		}
+	}
+
+	public Executor getDispatchExecutor() {
+		return dispatchExecutor;
+	}
+
+	/**
+	 * Delivers events to listeners on the given executor rather than the
+	 * accepting thread, so a slow onNewClient never holds up accepts. Events
+	 * still arrive in order, one at a time.
+	 * 
+	 * @param executor
+	 *            the executor, or null to notify listeners inline
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		dispatchExecutor = executor;
+		dispatcher = executor != null ? new AsyncSerialExecutor(executor)
+				: null;
 	}
 
 	public boolean isRunning() {
 		return running;
 	}
 
+	public AsyncMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Reports accepted and failed connections to the given metrics rather
+	 * than the registry's default
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public AsyncSocketOptions getSocketOptions() {
+		return options;
+	}
+
+	/**
+	 * The number of listening sockets accepting for this server
+	 * 
+	 * @return
+	 */
+	public int getAcceptorCount() {
+		return channels != null ? channels.length : 1;
+	}
+
 	public int getLocalPort() {
 		return server.getLocalPort();
 	}
@@ -1,15 +1,28 @@
 package com.spartango.network;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+import com.spartango.io.AsyncThreads;
+import com.spartango.io.lineread.AsyncChannelLineReader;
 import com.spartango.io.lineread.AsyncLineReadListener;
 import com.spartango.io.lineread.AsyncLineReader;
+import com.spartango.io.loop.AsyncChannel;
+import com.spartango.io.loop.AsyncEventLoopGroup;
+import com.spartango.io.metrics.AsyncMetrics;
+import com.spartango.io.write.AsyncChannelWriter;
 import com.spartango.io.write.AsyncOutputWriter;
+import com.spartango.io.write.AsyncWriteFuture;
 import com.spartango.io.write.AsyncWriteRequest;
 import com.spartango.io.write.AsyncWriteSender;
 
@@ -46,6 +59,22 @@ public class AsyncSocket {
 		this(new Socket(host, port));
 	}
 
+	/**
+	 * Creates a new socket connection to a host on a given port, with the
+	 * given options applied before connecting. BLOCKING--will wait for socket
+	 * connection
+	 * 
+	 * @param host
+	 * @param port
+	 * @param options
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public AsyncSocket(String host, int port, AsyncSocketOptions options)
+			throws UnknownHostException, IOException {
+		this(options.openSocket(host, port));
+	}
+
 	/**
 	 * Wraps an existing socket (connected) in asynchronous readers and writers
 	 * NONBLOCKING
@@ -54,15 +83,168 @@ public class AsyncSocket {
 	 * @throws IOException
 	 */
 	public AsyncSocket(Socket source) throws IOException {
+		this(source, AsyncThreads.platformThreads());
+	}
+
+	/**
+	 * Wraps an existing socket (connected) in asynchronous readers and writers
+	 * whose threads come from the given factory, such as
+	 * AsyncThreads.virtualThreads(). NONBLOCKING
+	 * 
+	 * @param source
+	 * @param threads
+	 * @throws IOException
+	 */
+	public AsyncSocket(Socket source, ThreadFactory threads)
+			throws IOException {
 		socket = source;
-		reader = new AsyncLineReader(new BufferedReader(new InputStreamReader(
-				socket.getInputStream())));
-		writer = new AsyncOutputWriter(socket.getOutputStream());
+		reader = new AsyncLineReader(socket.getInputStream(),
+				Charset.defaultCharset(), 0, threads);
+		writer = new AsyncOutputWriter(socket.getOutputStream(), threads);
 		running = false;
 
 		start();
 	}
 
+	/**
+	 * Creates a new socket connection to a host on a given port, driven by an
+	 * event loop from the given group rather than dedicated threads.
+	 * BLOCKING--will wait for socket connection
+	 * 
+	 * @param host
+	 * @param port
+	 * @param group
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public AsyncSocket(String host, int port, AsyncEventLoopGroup group)
+			throws UnknownHostException, IOException {
+		this(SocketChannel.open(new InetSocketAddress(host, port)), group);
+	}
+
+	/**
+	 * Creates a new socket connection to a host on a given port, with the
+	 * given options applied before connecting, driven by an event loop from
+	 * the given group. BLOCKING--will wait for socket connection
+	 * 
+	 * @param host
+	 * @param port
+	 * @param group
+	 * @param options
+	 * @throws UnknownHostException
+	 * @throws IOException
+	 */
+	public AsyncSocket(String host, int port, AsyncEventLoopGroup group,
+			AsyncSocketOptions options) throws UnknownHostException,
+			IOException {
+		this(options.openChannel(host, port), group);
+	}
+
+	/**
+	 * Wraps an existing channel (connected) in asynchronous readers and
+	 * writers driven by an event loop from the given group, so that many
+	 * sockets can share a few threads. NONBLOCKING
+	 * 
+	 * @param source
+	 * @param group
+	 * @throws IOException
+	 */
+	public AsyncSocket(SocketChannel source, AsyncEventLoopGroup group)
+			throws IOException {
+		this(new AsyncChannel(source, group.next()));
+	}
+
+	/**
+	 * Wraps a connected channel, such as one from connectAsync, in
+	 * asynchronous readers and writers driven by the channel's loop.
+	 * NONBLOCKING
+	 * 
+	 * @param channel
+	 */
+	public AsyncSocket(AsyncChannel channel) {
+		socket = ((SocketChannel) channel.getChannel()).socket();
+		reader = new AsyncChannelLineReader(channel);
+		writer = new AsyncChannelWriter(channel);
+		channel.register();
+		running = false;
+
+		start();
+	}
+
+	/**
+	 * Connects to a host without blocking, on an event loop from the given
+	 * group. NONBLOCKING
+	 * 
+	 * @param host
+	 * @param port
+	 * @param timeout
+	 *            ms to wait for the connection, or 0 to wait forever
+	 * @param group
+	 * @return a future completed with the connected socket
+	 * @see AsyncConnector
+	 */
+	public static CompletableFuture<AsyncSocket> connectAsync(String host,
+			int port, long timeout, AsyncEventLoopGroup group) {
+		return connectAsync(host, port, timeout, group, null);
+	}
+
+	/**
+	 * Connects to a host without blocking, on an event loop from the given
+	 * group, with the given options applied before connecting. NONBLOCKING
+	 * 
+	 * @param host
+	 * @param port
+	 * @param timeout
+	 *            ms to wait for the connection, or 0 to wait forever
+	 * @param group
+	 * @param options
+	 *            the options, or null for the system defaults
+	 * @return a future completed with the connected socket
+	 * @see AsyncConnector
+	 */
+	public static CompletableFuture<AsyncSocket> connectAsync(String host,
+			int port, long timeout, AsyncEventLoopGroup group,
+			AsyncSocketOptions options) {
+		return connectAsync(host, port, timeout, group, options, null);
+	}
+
+	/**
+	 * Connects to a host without blocking, on an event loop from the given
+	 * group, with the given options applied before connecting. A failure to
+	 * connect, and the socket's reads and writes, are reported to the given
+	 * metrics. NONBLOCKING
+	 * 
+	 * @param host
+	 * @param port
+	 * @param timeout
+	 *            ms to wait for the connection, or 0 to wait forever
+	 * @param group
+	 * @param options
+	 *            the options, or null for the system defaults
+	 * @param metrics
+	 *            the metrics, or null for the registry's default
+	 * @return a future completed with the connected socket
+	 * @see AsyncConnector
+	 */
+	public static CompletableFuture<AsyncSocket> connectAsync(String host,
+			int port, long timeout, AsyncEventLoopGroup group,
+			AsyncSocketOptions options, final AsyncMetrics metrics) {
+		AsyncConnector connector = new AsyncConnector(group);
+		if (metrics != null) {
+			connector.setMetrics(metrics);
+		}
+		return connector.connect(host, port, timeout, TimeUnit.MILLISECONDS,
+				options).thenApply(new Function<AsyncChannel, AsyncSocket>() {
+			public AsyncSocket apply(AsyncChannel channel) {
+				AsyncSocket socket = new AsyncSocket(channel);
+				if (metrics != null) {
+					socket.setMetrics(metrics);
+				}
+				return socket;
+			}
+		});
+	}
+
 	/**
 	 * Starts the read and write threads to handle IO operations
 	 */
@@ -110,6 +292,59 @@ public class AsyncSocket {
 		reader.removeAsyncLineReadListener(listener);
 	}
 
+	/**
+	 * Notifies this socket's listeners on the given executor, in order,
+	 * rather than on the thread reading the socket. An executor may be shared
+	 * by many sockets.
+	 * 
+	 * @param executor
+	 *            the executor, or null to notify listeners inline
+	 */
+	public void setDispatchExecutor(Executor executor) {
+		reader.setDispatchExecutor(executor);
+	}
+
+	/**
+	 * Stops reading from this socket until resumed, so that once its receive
+	 * buffer fills, the remote sender is held up too. NONBLOCKING
+	 */
+	public void pauseReading() {
+		reader.pauseReading();
+	}
+
+	/**
+	 * Reads from this socket again after pauseReading(). NONBLOCKING
+	 */
+	public void resumeReading() {
+		reader.resumeReading();
+	}
+
+	public boolean isReadingPaused() {
+		return reader.isReadingPaused();
+	}
+
+	/**
+	 * Pauses reading while the given number of events wait on the dispatch
+	 * executor, resuming once half of them have been delivered
+	 * 
+	 * @param maxPendingEvents
+	 *            or 0 for no limit
+	 */
+	public void setMaxPendingEvents(int maxPendingEvents) {
+		reader.setMaxPendingEvents(maxPendingEvents);
+	}
+
+	/**
+	 * Reports this socket's reads and writes to the given metrics rather
+	 * than the registry's default
+	 * 
+	 * @param metrics
+	 */
+	public void setMetrics(AsyncMetrics metrics) {
+		reader.setMetrics(metrics);
+		writer.setMetrics(metrics);
+	}
+
 	/**
 	 * Send some data over the socket NONBLOCKING
 	 * 
@@ -130,6 +365,16 @@ public class AsyncSocket {
 		writer.send(data, parent);
 	}
 
+	/**
+	 * Send some data over the socket NONBLOCKING
+	 * 
+	 * @param data
+	 * @return a future completed once the data has been written
+	 */
+	public AsyncWriteFuture sendAsync(String data) {
+		return writer.sendAsync(data);
+	}
+
 	/**
 	 * Send some data over the socket, specified in a prepackaged request.
 	 * 
@@ -148,6 +393,15 @@ public class AsyncSocket {
 		return running;
 	}
 
+	/**
+	 * The writer behind this socket, for tuning how sends are flushed
+	 * 
+	 * @return
+	 */
+	public AsyncOutputWriter getWriter() {
+		return writer;
+	}
+
 	public InetAddress getInetAddress() {
 		return socket.getInetAddress();
 	}
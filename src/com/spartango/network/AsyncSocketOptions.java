@@ -0,0 +1,276 @@
+package com.spartango.network;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket options to apply to the sockets behind an AsyncSocket,
+ * AsyncDataSocket or AsyncServerSocket. Options left unset keep the system's
+ * defaults, and options a socket doesn't support are skipped, so that one set
+ * can describe both a server and the clients it accepts.
+ *
+ * @see AsyncSocket
+ * @see AsyncServerSocket
+ * @author anand
+ *
+ */
+public class AsyncSocketOptions {
+	private Boolean tcpNoDelay;
+	private Integer sendBufferSize;
+	private Integer receiveBufferSize;
+	private Boolean keepAlive;
+	private Integer linger;
+	private Boolean reuseAddress;
+	private Boolean reusePort;
+	private int backlog;
+
+	public AsyncSocketOptions() {
+		backlog = 0;
+	}
+
+	/**
+	 * Options for small, latency sensitive messages: Nagle's algorithm is
+	 * disabled, so that writes aren't held back waiting for acknowledgements
+	 *
+	 * @return
+	 */
+	public static AsyncSocketOptions lowLatency() {
+		AsyncSocketOptions options = new AsyncSocketOptions();
+		options.setTcpNoDelay(true);
+		return options;
+	}
+
+	/**
+	 * Opens a socket to a host, applying these options before it connects.
+	 * BLOCKING--will wait for socket connection
+	 *
+	 * @param host
+	 * @param port
+	 * @return the connected socket
+	 * @throws IOException
+	 */
+	public Socket openSocket(String host, int port) throws IOException {
+		Socket socket = new Socket();
+		try {
+			applyTo(socket);
+			socket.connect(new InetSocketAddress(host, port));
+		} catch (IOException e) {
+			socket.close();
+			throw e;
+		}
+		return socket;
+	}
+
+	/**
+	 * Opens a channel to a host, applying these options before it connects.
+	 * BLOCKING--will wait for socket connection
+	 *
+	 * @param host
+	 * @param port
+	 * @return the connected channel
+	 * @throws IOException
+	 */
+	public SocketChannel openChannel(String host, int port)
+			throws IOException {
+		SocketChannel channel = SocketChannel.open();
+		try {
+			applyTo(channel);
+			channel.connect(new InetSocketAddress(host, port));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+	/**
+	 * Applies these options to a channel, before it connects or binds.
+	 * Buffer sizes set beforehand also size the TCP window.
+	 *
+	 * @param channel
+	 * @throws IOException
+	 */
+	public void applyTo(NetworkChannel channel) throws IOException {
+		set(channel, StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+		set(channel, StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+		set(channel, StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+		set(channel, StandardSocketOptions.SO_KEEPALIVE, keepAlive);
+		set(channel, StandardSocketOptions.SO_LINGER, linger);
+		set(channel, StandardSocketOptions.SO_REUSEADDR, reuseAddress);
+		set(channel, StandardSocketOptions.SO_REUSEPORT, reusePort);
+	}
+
+	private static <T> void set(NetworkChannel channel, SocketOption<T> name,
+			T value) throws IOException {
+		if (value != null && channel.supportedOptions().contains(name)) {
+			channel.setOption(name, value);
+		}
+	}
+
+	/**
+	 * Applies these options to a socket, preferably before it connects
+	 *
+	 * @param socket
+	 * @throws IOException
+	 */
+	public void applyTo(Socket socket) throws IOException {
+		if (tcpNoDelay != null) {
+			socket.setTcpNoDelay(tcpNoDelay);
+		}
+		if (sendBufferSize != null) {
+			socket.setSendBufferSize(sendBufferSize);
+		}
+		if (receiveBufferSize != null) {
+			socket.setReceiveBufferSize(receiveBufferSize);
+		}
+		if (keepAlive != null) {
+			socket.setKeepAlive(keepAlive);
+		}
+		if (linger != null) {
+			socket.setSoLinger(linger >= 0, Math.max(linger, 0));
+		}
+		if (reuseAddress != null) {
+			socket.setReuseAddress(reuseAddress);
+		}
+		if (reusePort != null
+				&& socket.supportedOptions().contains(
+						StandardSocketOptions.SO_REUSEPORT)) {
+			socket.setOption(StandardSocketOptions.SO_REUSEPORT, reusePort);
+		}
+	}
+
+	/**
+	 * Applies the options that concern listening to a server socket, before
+	 * it binds
+	 *
+	 * @param server
+	 * @throws IOException
+	 */
+	public void applyTo(ServerSocket server) throws IOException {
+		if (receiveBufferSize != null) {
+			server.setReceiveBufferSize(receiveBufferSize);
+		}
+		if (reuseAddress != null) {
+			server.setReuseAddress(reuseAddress);
+		}
+		if (reusePort != null
+				&& server.supportedOptions().contains(
+						StandardSocketOptions.SO_REUSEPORT)) {
+			server.setOption(StandardSocketOptions.SO_REUSEPORT, reusePort);
+		}
+	}
+
+	public Boolean getTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	/**
+	 * Disables Nagle's algorithm, sending small writes at once rather than
+	 * coalescing them (TCP_NODELAY)
+	 *
+	 * @param tcpNoDelay
+	 */
+	public void setTcpNoDelay(Boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public Integer getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	/**
+	 * @param sendBufferSize
+	 *            bytes (SO_SNDBUF), or null for the system default
+	 */
+	public void setSendBufferSize(Integer sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	public Integer getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	/**
+	 * @param receiveBufferSize
+	 *            bytes (SO_RCVBUF), or null for the system default. Inherited
+	 *            by the clients a server accepts.
+	 */
+	public void setReceiveBufferSize(Integer receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public Boolean getKeepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * Probes idle connections to detect dead peers (SO_KEEPALIVE)
+	 *
+	 * @param keepAlive
+	 */
+	public void setKeepAlive(Boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public Integer getLinger() {
+		return linger;
+	}
+
+	/**
+	 * @param linger
+	 *            seconds that close waits for unsent data (SO_LINGER), a
+	 *            negative value to disable lingering, or null for the system
+	 *            default
+	 */
+	public void setLinger(Integer linger) {
+		this.linger = linger;
+	}
+
+	public Boolean getReuseAddress() {
+		return reuseAddress;
+	}
+
+	/**
+	 * Allows binding to an address still in TIME_WAIT (SO_REUSEADDR)
+	 *
+	 * @param reuseAddress
+	 */
+	public void setReuseAddress(Boolean reuseAddress) {
+		this.reuseAddress = reuseAddress;
+	}
+
+	public Boolean getReusePort() {
+		return reusePort;
+	}
+
+	/**
+	 * Allows several sockets to bind the same port, with the kernel spreading
+	 * connections between them (SO_REUSEPORT). Skipped where the platform
+	 * lacks it.
+	 *
+	 * @param reusePort
+	 */
+	public void setReusePort(Boolean reusePort) {
+		this.reusePort = reusePort;
+	}
+
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * @param backlog
+	 *            a server's pending connection limit, or 0 for the system
+	 *            default
+	 */
+	public void setBacklog(int backlog) {
+		this.backlog = backlog;
+	}
+
+}